@@ -0,0 +1,79 @@
+package jLox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Measures message throughput of Lox actors: the same number of messages is sent round robin to 1, 100
+ * and 10000 actors, each keeping a running total, then every actor is asked for its total. Reports the
+ * messages per second from the first send to the last reply, and the rate of processing time from --stats
+ */
+public class ActorBenchmark
+{
+    private static final int MESSAGES = 200000;
+    private static final int RUNS = 3;
+
+    private static final int[] ACTORS = {1, 100, 10000};
+
+    public static void main(String[] args)
+    {
+        for (int actors : ACTORS)
+        {
+            Program program = Program.compile(generate(actors), new ErrorReporter(System.err));
+            double best = Double.MAX_VALUE;
+            double processing = 0;
+
+            for (int run = 0; run < RUNS; run++)
+            {
+                long start = System.nanoTime();
+                Interpreter interpreter = run(program);
+                double seconds = (System.nanoTime() - start) / 1e9;
+
+                if (seconds < best)
+                {
+                    best = seconds;
+                    processing = interpreter.actorMetrics.throughput();
+                }
+            }
+
+            System.out.printf("%5d actors: %.2f M messages/s, %.2f M messages/s of processing time%n",
+                    actors, MESSAGES / best / 1e6, processing / 1e6);
+        }
+    }
+
+    private static Interpreter run(Program program)
+    {
+        ErrorReporter reporter = new ErrorReporter(System.err);
+        Interpreter interpreter = new Interpreter(new PrintStream(OutputStream.nullOutputStream()), reporter);
+        interpreter.run(program);
+
+        if (reporter.hadRuntimeError())
+        {
+            throw new IllegalStateException("runtime error");
+        }
+        return interpreter;
+    }
+
+    /**
+     * @return a script sending the messages to the given number of actors kept in a linked list,
+     * it checks the totals
+     */
+    private static String generate(int actors)
+    {
+        int perActor = MESSAGES / actors;
+
+        return "class Total { init() { this.n = 0; } add(x) { this.n = this.n + x; return this.n; } }\n"
+                + "class Node { init(actor, next) { this.actor = actor; this.next = next; } }\n"
+                + "var head = nil;\n"
+                + "for (var a = 0; a < " + actors + "; a = a + 1) head = Node(actor(Total()), head);\n"
+                + "for (var m = 0; m < " + perActor + "; m = m + 1) {\n"
+                + "    var node = head;\n"
+                + "    while (node != nil) { node.actor.add(1); node = node.next; }\n"
+                + "}\n"
+                + "var node = head;\n"
+                + "while (node != nil) {\n"
+                + "    if (node.actor.add(0).join() != " + perActor + ") print nope;\n"
+                + "    node = node.next;\n"
+                + "}\n";
+    }
+}
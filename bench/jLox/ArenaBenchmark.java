@@ -0,0 +1,129 @@
+package jLox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Compares the tree and the arena encoding of a program: the heap each one retains per node and the
+ * time to execute the program with each interpreter. The script should only print a little,
+ * by default a generated one with many small functions called from a loop is used
+ */
+public class ArenaBenchmark
+{
+    private static final int RUNS = 5;
+    private static final int GENERATED_FUNCTIONS = 4000;
+    private static final int GENERATED_ROUNDS = 25;
+
+    public static void main(String[] args) throws IOException
+    {
+        String source = args.length > 0 ? new String(Files.readAllBytes(Paths.get(args[0]))) : generate();
+
+        long base = usedHeap();
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = resolve(source, interpreter);
+        long tree = usedHeap() - base;
+        int nodes = count(statements);
+
+        Arena arena = new Arena();
+        new ArenaBuilder(interpreter, arena).encode(statements);
+        interpreter.clearResolution();
+        statements = null;
+        long encoded = usedHeap() - base;
+
+        System.out.printf("%d nodes: tree %.1f bytes/node, arena %.1f bytes/node%n", nodes, (double)tree / nodes,
+                (double)encoded / arena.size);
+
+        for (int run = 0; run < RUNS; run++)
+        {
+            Interpreter treeInterpreter = new Interpreter();
+            List<Stmt> treeProgram = resolve(source, treeInterpreter);
+            new Inliner(treeInterpreter).inline(treeProgram);
+            treeInterpreter.hierarchy.analyze(treeProgram);
+            long start = System.nanoTime();
+            treeInterpreter.interpret(treeProgram, false);
+            double treeSeconds = (System.nanoTime() - start) / 1e9;
+
+            Interpreter host = new Interpreter();
+            Arena runArena = new Arena();
+            int arenaProgram = new ArenaBuilder(host, runArena).encode(resolve(source, host));
+            host.clearResolution();
+            start = System.nanoTime();
+            new ArenaInterpreter(host, runArena).interpret(arenaProgram);
+            double arenaSeconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("tree %.1f ms, arena %.1f ms%n", treeSeconds * 1e3, arenaSeconds * 1e3);
+        }
+    }
+
+    private static List<Stmt> resolve(String source, Interpreter interpreter)
+    {
+        List<Stmt> statements = new Optimizer().optimize(new Parser(new Scanner(source)).parse());
+        Resolver resolver = new Resolver(interpreter);
+        resolver.resolve(statements);
+        resolver.markPureFunctions();
+        return statements;
+    }
+
+    private static int count(List<Stmt> statements)
+    {
+        int[] nodes = {0};
+
+        new AstWalker()
+        {
+            @Override
+            void walk(Stmt stmt)
+            {
+                nodes[0]++;
+                super.walk(stmt);
+            }
+
+            @Override
+            void walk(Expr expr)
+            {
+                nodes[0]++;
+                super.walk(expr);
+            }
+        }.walk(statements);
+
+        return nodes[0];
+    }
+
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+        {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * @return small functions with loops and arithmetic, all called a few rounds from a loop
+     */
+    private static String generate()
+    {
+        StringBuilder source = new StringBuilder();
+
+        for (int i = 0; i < GENERATED_FUNCTIONS; i++)
+        {
+            source.append("fun f").append(i).append("(a, b) {\n")
+                    .append("    var t = a * ").append(i).append(" + b;\n")
+                    .append("    var i = 0;\n")
+                    .append("    while (i < 3) { t = t + i * (a - b) / 2; i = i + 1; }\n")
+                    .append("    if (t > 1000) return t - 1000; else return t;\n")
+                    .append("}\n");
+        }
+
+        source.append("var total = 0;\n")
+                .append("for (var r = 0; r < ").append(GENERATED_ROUNDS).append("; r = r + 1) {\n");
+        for (int i = 0; i < GENERATED_FUNCTIONS; i++)
+        {
+            source.append("    total = total + f").append(i).append("(r, ").append(i % 7).append(");\n");
+        }
+        source.append("}\nprint total;\n");
+        return source.toString();
+    }
+}
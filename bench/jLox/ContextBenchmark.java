@@ -0,0 +1,95 @@
+package jLox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures how running a program scales with the number of threads. The program is compiled once,
+ * every run creates its own interpreter context, the runs are spread over 1, 2, 4... threads up to
+ * the number of processors. By default a generated CPU bound script is used
+ */
+public class ContextBenchmark
+{
+    private static final int RUNS_PER_THREAD = 8;
+
+    public static void main(String[] args) throws Exception
+    {
+        String source = args.length > 0 ? new String(Files.readAllBytes(Paths.get(args[0]))) : generate();
+        Program program = Program.compile(source, new ErrorReporter(System.err));
+        if (program == null)
+        {
+            System.exit(65);
+        }
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        double single = 0;
+
+        for (int threads = 1; threads <= processors; threads *= 2)
+        {
+            measure(program, threads);
+            double runsPerSecond = measure(program, threads);
+            if (threads == 1)
+            {
+                single = runsPerSecond;
+            }
+            System.out.printf("%d threads: %.1f runs/s, %.2fx%n", threads, runsPerSecond, runsPerSecond / single);
+        }
+    }
+
+    private static double measure(Program program, int threads) throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try
+        {
+            int runs = threads * RUNS_PER_THREAD;
+            List<Future<?>> results = new ArrayList<>(runs);
+            long start = System.nanoTime();
+
+            for (int i = 0; i < runs; i++)
+            {
+                results.add(executor.submit(() -> run(program)));
+            }
+            for (Future<?> result : results)
+            {
+                result.get();
+            }
+            return runs / ((System.nanoTime() - start) / 1e9);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    private static void run(Program program)
+    {
+        PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+        ErrorReporter reporter = new ErrorReporter(System.err);
+        new Interpreter(out, reporter).run(program);
+
+        if (reporter.hadRuntimeError())
+        {
+            throw new IllegalStateException("runtime error");
+        }
+    }
+
+    /**
+     * @return a recursive fib and a loop over a small class
+     */
+    private static String generate()
+    {
+        return "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }\n"
+                + "class Point { init(x, y) { this.x = x; this.y = y; } sum() { return this.x + this.y; } }\n"
+                + "var total = 0;\n"
+                + "for (var i = 0; i < 20000; i = i + 1) { total = total + Point(i, 1).sum(); }\n"
+                + "print fib(22) + total;\n";
+    }
+}
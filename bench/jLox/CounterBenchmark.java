@@ -0,0 +1,86 @@
+package jLox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Measures shared counters updated by many Lox tasks in thread safe mode: an atomic, a counter and
+ * compareAndSet retries on an instance field. The same number of increments is split over 1, 2,
+ * 4... tasks up to twice the number of processors, and the increments per second are reported
+ */
+public class CounterBenchmark
+{
+    private static final int INCREMENTS = 400000;
+    private static final int RUNS = 3;
+
+    private static final String[] KINDS = {"atomic", "counter", "field"};
+
+    public static void main(String[] args)
+    {
+        int maxTasks = 2 * Runtime.getRuntime().availableProcessors();
+
+        for (String kind : KINDS)
+        {
+            for (int tasks = 1; tasks <= maxTasks; tasks *= 2)
+            {
+                Program program = Program.compile(generate(kind, tasks), new ErrorReporter(System.err));
+                double best = Double.MAX_VALUE;
+
+                for (int run = 0; run < RUNS; run++)
+                {
+                    long start = System.nanoTime();
+                    run(program);
+                    best = Math.min(best, (System.nanoTime() - start) / 1e9);
+                }
+
+                System.out.printf("%-8s %2d tasks: %.1f M increments/s%n", kind, tasks, INCREMENTS / best / 1e6);
+            }
+        }
+    }
+
+    private static void run(Program program)
+    {
+        ErrorReporter reporter = new ErrorReporter(System.err);
+        new Interpreter(new PrintStream(OutputStream.nullOutputStream()), reporter, true).run(program);
+
+        if (reporter.hadRuntimeError())
+        {
+            throw new IllegalStateException("runtime error");
+        }
+    }
+
+    /**
+     * @return a script where the given number of tasks share the increments of one kind of counter,
+     * it checks the final count
+     */
+    private static String generate(String kind, int tasks)
+    {
+        String increment;
+        String total;
+
+        switch (kind)
+        {
+            case "atomic":
+            case "counter":
+                increment = "shared.add(1);";
+                total = "shared.get()";
+                break;
+            default:
+                increment = "var ok = false; while (!ok) { var n = cell.n; ok = compareAndSet(cell, \"n\", n, n + 1); }";
+                total = "cell.n";
+                break;
+        }
+
+        return "var shared = " + (kind.equals("counter") ? "counter()" : "atomic(0)") + ";\n"
+                + "class Cell { init() { this.n = 0; } }\n"
+                + "var cell = Cell();\n"
+                + "var done = channel(" + tasks + ");\n"
+                + "fun work() {\n"
+                + "    for (var i = 0; i < " + INCREMENTS / tasks + "; i = i + 1) { " + increment + " }\n"
+                + "    done.send(nil);\n"
+                + "}\n"
+                + "for (var t = 0; t < " + tasks + "; t = t + 1) spawn(work);\n"
+                + "for (var t = 0; t < " + tasks + "; t = t + 1) done.receive();\n"
+                + "if (" + total + " != " + (INCREMENTS / tasks) * tasks + ") print nope;\n";
+    }
+}
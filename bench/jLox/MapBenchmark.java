@@ -0,0 +1,97 @@
+package jLox;
+
+import java.util.Collections;
+
+/**
+ * Compares the native map with the workaround of storing entries as fields of an instance, named by
+ * the key. Inserts a number of distinct keys then looks every one of them up, for string keys and for
+ * number keys, which the workaround has to turn into field names. Reports the operations per second
+ */
+public class MapBenchmark
+{
+    private static final int KEYS = 200000;
+    private static final int WARMUP = 5;
+    private static final int RUNS = 5;
+
+    private static final LoxClass FIELDS = new LoxClass("Fields", null, Collections.emptyMap());
+
+    private static volatile Object sink;
+
+    public static void main(String[] args)
+    {
+        String[] strings = new String[KEYS];
+        Double[] numbers = new Double[KEYS];
+        for (int i = 0; i < KEYS; i++)
+        {
+            strings[i] = "key" + i;
+            numbers[i] = (double)i;
+        }
+
+        report("map, string keys", () -> {
+            LoxMap map = new LoxMap();
+            for (String key : strings)
+            {
+                map.put(key, key);
+            }
+            for (String key : strings)
+            {
+                sink = map.get(key);
+            }
+        });
+        report("fields, string keys", () -> {
+            LoxInstance instance = new LoxInstance(FIELDS);
+            for (String key : strings)
+            {
+                instance.set(key, key);
+            }
+            for (String key : strings)
+            {
+                sink = instance.get(key, 0);
+            }
+        });
+        report("map, number keys", () -> {
+            LoxMap map = new LoxMap();
+            for (Double key : numbers)
+            {
+                map.put(key, key);
+            }
+            for (Double key : numbers)
+            {
+                sink = map.get(key);
+            }
+        });
+        report("fields, number keys", () -> {
+            LoxInstance instance = new LoxInstance(FIELDS);
+            for (Double key : numbers)
+            {
+                instance.set(Interpreter.stringify(key), key);
+            }
+            for (Double key : numbers)
+            {
+                sink = instance.get(Interpreter.stringify(key), 0);
+            }
+        });
+    }
+
+    /**
+     * Runs a workload of KEYS inserts and KEYS lookups a few times after warming it up
+     * @param name The name printed
+     * @param workload The workload
+     */
+    private static void report(String name, Runnable workload)
+    {
+        for (int run = 0; run < WARMUP; run++)
+        {
+            workload.run();
+        }
+
+        double best = Double.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++)
+        {
+            long start = System.nanoTime();
+            workload.run();
+            best = Math.min(best, (System.nanoTime() - start) / 1e9);
+        }
+        System.out.printf("%-20s %.1f M operations/s%n", name, 2 * KEYS / best / 1e6);
+    }
+}
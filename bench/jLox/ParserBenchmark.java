@@ -0,0 +1,76 @@
+package jLox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Measures the parser throughput in tokens/s.
+ * The given script, or a generated one of long and deeply nested expressions, is scanned once
+ * and its tokens are parsed a few times to warm up before the timed runs
+ */
+public class ParserBenchmark
+{
+    private static final int WARMUP = 5;
+    private static final int RUNS = 5;
+    private static final int GENERATED_STATEMENTS = 20000;
+    private static final int GENERATED_DEPTH = 40;
+
+    public static void main(String[] args) throws IOException
+    {
+        String source = args.length > 0 ? new String(Files.readAllBytes(Paths.get(args[0]))) : generate();
+        List<Token> tokens = new Scanner(source).scanTokens();
+
+        for (int run = 0; run < WARMUP + RUNS; run++)
+        {
+            long start = System.nanoTime();
+            List<Stmt> statements = new Parser(tokens).parse();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            if (run >= WARMUP)
+            {
+                System.out.printf("%d statements, %d tokens in %.1f ms: %.2f M tokens/s%n", statements.size(),
+                        tokens.size(), seconds * 1e3, tokens.size() / seconds / 1e6);
+            }
+        }
+    }
+
+    /**
+     * @return statements alternating long flat expressions and deeply nested ones
+     */
+    private static String generate()
+    {
+        StringBuilder source = new StringBuilder();
+
+        for (int i = 0; i < GENERATED_STATEMENTS; i++)
+        {
+            source.append("print ");
+
+            if (i % 2 == 0)
+            {
+                for (int term = 0; term < GENERATED_DEPTH; term++)
+                {
+                    source.append("a").append(term % 7).append(term % 3 == 0 ? " * " : " + ")
+                            .append(term).append(term % 5 == 0 ? " < " : " - ");
+                }
+                source.append("0");
+            }
+            else
+            {
+                for (int level = 0; level < GENERATED_DEPTH; level++)
+                {
+                    source.append(level % 4 == 0 ? "-(" : "f(x.y, ");
+                }
+                source.append("1");
+                for (int level = 0; level < GENERATED_DEPTH; level++)
+                {
+                    source.append(')');
+                }
+            }
+
+            source.append(i % 3 == 0 ? " == nil ? true : false;\n" : ";\n");
+        }
+        return source.toString();
+    }
+}
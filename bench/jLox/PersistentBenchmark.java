@@ -0,0 +1,94 @@
+package jLox;
+
+/**
+ * Compares making modified copies of a large collection: a persistent vector or map returns the copy from
+ * set, while an array or a map has to be copied element by element before the change, the defensive copy
+ * scripts make without persistent collections. Reports the modified copies per second for each
+ */
+public class PersistentBenchmark
+{
+    private static final int SIZE = 100000;
+    private static final int PERSISTENT_COPIES = 200000;
+    private static final int MUTABLE_COPIES = 100;
+    private static final int WARMUP = 3;
+    private static final int RUNS = 5;
+
+    private static volatile Object sink;
+
+    public static void main(String[] args)
+    {
+        LoxArray array = new LoxArray(0);
+        LoxMap map = new LoxMap();
+        LoxVector vector = LoxVector.EMPTY;
+        LoxPersistentMap persistentMap = LoxPersistentMap.EMPTY;
+        for (int i = 0; i < SIZE; i++)
+        {
+            array.push((double)i);
+            map.put((double)i, (double)i);
+            vector = vector.push((double)i);
+            persistentMap = persistentMap.put((double)i, (double)i);
+        }
+        LoxVector vectorSource = vector;
+        LoxPersistentMap mapSource = persistentMap;
+
+        report("array copy", MUTABLE_COPIES, () -> {
+            for (int copy = 0; copy < MUTABLE_COPIES; copy++)
+            {
+                LoxArray result = new LoxArray(0);
+                for (int i = 0; i < array.size(); i++)
+                {
+                    result.push(array.get(i));
+                }
+                result.set(copy, -1.0);
+                sink = result;
+            }
+        });
+        report("vector set", PERSISTENT_COPIES, () -> {
+            for (int copy = 0; copy < PERSISTENT_COPIES; copy++)
+            {
+                sink = vectorSource.set(copy % SIZE, -1.0);
+            }
+        });
+        report("map copy", MUTABLE_COPIES, () -> {
+            for (int copy = 0; copy < MUTABLE_COPIES; copy++)
+            {
+                LoxMap result = new LoxMap();
+                for (int slot = map.next(0); slot >= 0; slot = map.next(slot + 1))
+                {
+                    result.put(map.keyAt(slot), map.valueAt(slot));
+                }
+                result.put((double)copy, -1.0);
+                sink = result;
+            }
+        });
+        report("persistent map set", PERSISTENT_COPIES, () -> {
+            for (int copy = 0; copy < PERSISTENT_COPIES; copy++)
+            {
+                sink = mapSource.put((double)(copy % SIZE), -1.0);
+            }
+        });
+    }
+
+    /**
+     * Runs a workload a few times after warming it up
+     * @param name The name printed
+     * @param copies The number of modified copies the workload makes
+     * @param workload The workload
+     */
+    private static void report(String name, int copies, Runnable workload)
+    {
+        for (int run = 0; run < WARMUP; run++)
+        {
+            workload.run();
+        }
+
+        double best = Double.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++)
+        {
+            long start = System.nanoTime();
+            workload.run();
+            best = Math.min(best, (System.nanoTime() - start) / 1e9);
+        }
+        System.out.printf("%-20s %.0f copies/s of %d elements%n", name, copies / best, SIZE);
+    }
+}
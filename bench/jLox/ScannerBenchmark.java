@@ -0,0 +1,69 @@
+package jLox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Measures the scanner throughput in MB/s.
+ * Scans the given script, or a generated one of about 16 MB, a few times to warm up and then
+ * reports the timed runs
+ */
+public class ScannerBenchmark
+{
+    private static final int WARMUP = 5;
+    private static final int RUNS = 5;
+    private static final int GENERATED_SIZE = 16 << 20;
+
+    public static void main(String[] args) throws IOException
+    {
+        String source = args.length > 0 ? new String(Files.readAllBytes(Paths.get(args[0]))) : generate();
+        double megabytes = source.length() / 1e6;
+
+        for (int run = 0; run < WARMUP + RUNS; run++)
+        {
+            long start = System.nanoTime();
+            int tokens = scan(source);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            if (run >= WARMUP)
+            {
+                System.out.printf("%.1f MB, %d tokens in %.1f ms: %.1f MB/s%n", megabytes, tokens,
+                        seconds * 1e3, megabytes / seconds);
+            }
+        }
+    }
+
+    private static int scan(String source)
+    {
+        Scanner scanner = new Scanner(source);
+        int tokens = 0;
+
+        while (scanner.nextToken().type != TokenType.EOF)
+        {
+            tokens++;
+        }
+        return tokens;
+    }
+
+    /**
+     * @return a script mixing keywords, names, operators, numbers, strings and comments
+     */
+    private static String generate()
+    {
+        StringBuilder source = new StringBuilder(GENERATED_SIZE + 256);
+
+        for (int i = 0; source.length() < GENERATED_SIZE; i++)
+        {
+            source.append("// function number ").append(i).append('\n')
+                    .append("fun compute").append(i).append("(first, second) {\n")
+                    .append("    var total = first * ").append(i).append(".25 + second;\n")
+                    .append("    if (total >= 10 and !(first == second)) { return \"large\"; }\n")
+                    .append("    /* loop */ for (var j = 0; j < 3; j = j + 1) total = total - j / 2;\n")
+                    .append("    while (total != nil or false) print this.value ? true : super.x;\n")
+                    .append("    return total;\n")
+                    .append("}\n");
+        }
+        return source.toString();
+    }
+}
@@ -1,6 +1,6 @@
 package jLox;
 
-public class ASTPrinter //implements Expr.Visitor<String>
+class ASTPrinter //implements Expr.Visitor<String>
 {}/*
     String print(Expr expr)
     {
@@ -9,7 +9,7 @@ public class ASTPrinter //implements Expr.Visitor<String>
 
     @Override
     public String visitBinaryExpr(Expr.Binary expr) {
-        return parenthesize(expr.operator.lexeme, expr.left, expr.right);
+        return parenthesize(expr.operator.lexeme(), expr.left, expr.right);
     }
 
     @Override
@@ -27,12 +27,12 @@ public class ASTPrinter //implements Expr.Visitor<String>
 
     @Override
     public String visitUnaryExpr(Expr.Unary expr) {
-        return parenthesize(expr.operator.lexeme, expr.right);
+        return parenthesize(expr.operator.lexeme(), expr.right);
     }
 
     @Override
     public String visitTernaryExpr(Expr.Ternary expr) {
-        return "";//parenthesize(expr.operator.lexeme, expr.right);
+        return "";//parenthesize(expr.operator.lexeme(), expr.right);
     }
 /*
     @Override
@@ -0,0 +1,185 @@
+package jLox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact encoding of a resolved program. Every node is an index into parallel arrays holding its
+ * kind, up to three operands and its source line, instead of an object with references to tokens.
+ * Operands are child nodes, constant indexes, resolved scope distances and slots, or offsets in
+ * the list array where a count is followed by that many nodes. NONE marks a missing operand
+ */
+class Arena
+{
+    static final int NONE = -1;
+    static final int GLOBAL = -1;
+
+    // expressions
+    static final byte LITERAL = 0;          // constant
+    static final byte LOCAL = 1;            // distance, slot
+    static final byte GLOBAL_VARIABLE = 2;  // name
+    static final byte ASSIGN_LOCAL = 3;     // distance, slot, value
+    static final byte ASSIGN_GLOBAL = 4;    // name, -, value
+    static final byte ADD = 5;              // left, right
+    static final byte SUBTRACT = 6;
+    static final byte MULTIPLY = 7;
+    static final byte DIVIDE = 8;
+    static final byte GREATER = 9;
+    static final byte GREATER_EQUAL = 10;
+    static final byte LESS = 11;
+    static final byte LESS_EQUAL = 12;
+    static final byte EQUAL = 13;
+    static final byte NOT_EQUAL = 14;
+    static final byte AND = 15;
+    static final byte OR = 16;
+    static final byte NEGATE = 17;          // operand
+    static final byte NOT = 18;             // operand
+    static final byte TERNARY = 19;         // condition, if true, if false
+    static final byte CALL = 20;            // callee, argument list
+    static final byte GET = 21;             // object, name
+    static final byte SET = 22;             // object, name, value
+    static final byte SUPER = 23;           // distance, name
+    static final byte HOISTED = 24;         // distance, slot, expression
+
+    // statements
+    static final byte EXPRESSION = 25;      // expression
+    static final byte PRINT = 26;           // expression
+    static final byte VAR = 27;             // name, slot or GLOBAL, initializer
+    static final byte BLOCK = 28;           // statement list, slot count
+    static final byte IF = 29;              // condition, then, else
+    static final byte WHILE = 30;           // condition, body
+    static final byte FUNCTION = 31;        // declaration, slot or GLOBAL
+    static final byte RETURN = 32;          // value
+    static final byte EXIT = 33;            // value
+    static final byte CLASS = 34;           // name, slot or GLOBAL, list of superclass and method declarations
+    static final byte YIELD = 35;           // value
+
+    // function declarations, pure ones can be memoized, calling a generator returns an iterator
+    static final byte DECLARATION = 36;     // name, body list, slot count << 8 | arity
+    static final byte PURE_DECLARATION = 37;
+    static final byte GENERATOR_DECLARATION = 38;
+
+    // assignment to a local declared outside the assigning function, parallel pieces can't run it
+    static final byte ASSIGN_OUTER = 39;    // distance, slot, value
+
+    // loop over an iterator, closing it when the loop is left before its end
+    static final byte CLOSE = 40;           // iterator, body
+
+    byte[] kinds = new byte[1024];
+    int[] first = new int[1024];
+    int[] second = new int[1024];
+    int[] third = new int[1024];
+    int[] lines = new int[1024];
+    int size = 0;
+
+    int[] lists = new int[1024];
+    int listSize = 0;
+
+    Object[] constants = new Object[256];
+    int constantCount = 0;
+    private final Map<Object, Integer> constantIndexes = new HashMap<>();
+
+    /**
+     * Appends a node
+     * @return the index of the node
+     */
+    int add(byte kind, int a, int b, int c, int line)
+    {
+        if (size == kinds.length)
+        {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            first = Arrays.copyOf(first, capacity);
+            second = Arrays.copyOf(second, capacity);
+            third = Arrays.copyOf(third, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+
+        kinds[size] = kind;
+        first[size] = a;
+        second[size] = b;
+        third[size] = c;
+        lines[size] = line;
+        return size++;
+    }
+
+    /**
+     * Appends a list of nodes
+     * @return the offset of the list
+     */
+    int list(List<Integer> nodes)
+    {
+        if (listSize + nodes.size() + 1 > lists.length)
+        {
+            lists = Arrays.copyOf(lists, Math.max(lists.length * 2, listSize + nodes.size() + 1));
+        }
+
+        int offset = listSize;
+        lists[listSize++] = nodes.size();
+        for (int node : nodes)
+        {
+            lists[listSize++] = node;
+        }
+        return offset;
+    }
+
+    /**
+     * Finds or adds a literal value to the constants
+     * @return the index of the constant
+     */
+    int constant(Object value)
+    {
+        Integer index = constantIndexes.get(value);
+        if (index == null)
+        {
+            index = addConstant(value);
+            constantIndexes.put(value, index);
+        }
+        return index;
+    }
+
+    /**
+     * Finds or adds a name to the constants, the line of the name stays in its node
+     * @return the index of the constant
+     */
+    int name(Token name)
+    {
+        return constant(name.lexeme());
+    }
+
+    private int addConstant(Object value)
+    {
+        if (constantCount == constants.length)
+        {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        return constantCount++;
+    }
+
+    String name(int constant)
+    {
+        return (String)constants[constant];
+    }
+
+    static int arity(int packed)
+    {
+        return packed & 0xff;
+    }
+
+    static int slotCount(int packed)
+    {
+        return packed >>> 8;
+    }
+
+    /**
+     * @return the number of bytes taken by the node, list and constant arrays, not counting the constants themselves
+     */
+    long footprint()
+    {
+        return kinds.length + 4L * (first.length + second.length + third.length + lines.length)
+                + 4L * lists.length + 4L * constants.length;
+    }
+}
@@ -0,0 +1,362 @@
+package jLox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes a resolved program into an Arena.
+ * Run after the Resolver, the scope distances it found are kept in the nodes along with the slot
+ * of each local in its scope, the scopes are tracked the same way the Resolver does so the slots
+ * follow the order of the declarations in each block, function and class
+ */
+class ArenaBuilder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer>
+{
+    private final Interpreter interpreter;
+    private final Arena arena;
+    private final List<Map<String, Integer>> scopes = new ArrayList<>();
+
+    ArenaBuilder(Interpreter interpreter, Arena arena)
+    {
+        this.interpreter = interpreter;
+        this.arena = arena;
+    }
+
+    /**
+     * Encodes the top level statements of a program
+     * @param statements The resolved statements
+     * @return the offset of the statement list in the arena
+     */
+    int encode(List<Stmt> statements)
+    {
+        return arena.list(encodeAll(statements));
+    }
+
+    private List<Integer> encodeAll(List<Stmt> statements)
+    {
+        List<Integer> nodes = new ArrayList<>(statements.size());
+        for (Stmt statement : statements)
+        {
+            nodes.add(encode(statement));
+        }
+        return nodes;
+    }
+
+    private int encode(Stmt stmt)
+    {
+        return stmt.accept(this);
+    }
+
+    private int encode(Expr expr)
+    {
+        return expr == null ? Arena.NONE : expr.accept(this);
+    }
+
+    private void beginScope()
+    {
+        scopes.add(new HashMap<>());
+    }
+
+    private int endScope()
+    {
+        return scopes.remove(scopes.size() - 1).size();
+    }
+
+    /**
+     * Gives a name the next slot of the innermost scope
+     * @return the slot, GLOBAL outside of any scope
+     */
+    private int declare(Token name)
+    {
+        if (scopes.isEmpty())
+        {
+            return Arena.GLOBAL;
+        }
+
+        Map<String, Integer> scope = scopes.get(scopes.size() - 1);
+        int slot = scope.size();
+        scope.put(name.lexeme(), slot);
+        return slot;
+    }
+
+    private int slot(int distance, Token name)
+    {
+        return scopes.get(scopes.size() - 1 - distance).get(name.lexeme());
+    }
+
+    private int variable(Expr expr, Token name)
+    {
+        Integer distance = interpreter.depth(expr);
+        if (distance == null)
+        {
+            return arena.add(Arena.GLOBAL_VARIABLE, arena.name(name), Arena.NONE, Arena.NONE, name.line);
+        }
+        return arena.add(Arena.LOCAL, distance, slot(distance, name), Arena.NONE, name.line);
+    }
+
+    /**
+     * Encodes a function declaration, its parameters take the first slots of its scope
+     * @param function The declaration
+     * @return the declaration node
+     */
+    private int declaration(Stmt.Function function)
+    {
+        beginScope();
+        for (Token param : function.params)
+        {
+            declare(param);
+        }
+        int body = arena.list(encodeAll(function.body));
+        int slots = endScope();
+
+        byte kind = interpreter.isGenerator(function) ? Arena.GENERATOR_DECLARATION
+                : interpreter.isPure(function) ? Arena.PURE_DECLARATION : Arena.DECLARATION;
+        int declaration = arena.add(kind, arena.name(function.name), body, slots << 8 | function.params.size(),
+                function.name.line);
+        if (kind == Arena.PURE_DECLARATION)
+        {
+            interpreter.encodedPure(function, declaration);
+        }
+        return declaration;
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr)
+    {
+        int value = encode(expr.value);
+        Integer distance = interpreter.depth(expr);
+
+        if (distance == null)
+        {
+            return arena.add(Arena.ASSIGN_GLOBAL, arena.name(expr.name), Arena.NONE, value, expr.name.line);
+        }
+        byte kind = interpreter.isOuterAssignment(expr) ? Arena.ASSIGN_OUTER : Arena.ASSIGN_LOCAL;
+        return arena.add(kind, distance, slot(distance, expr.name), value, expr.name.line);
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr)
+    {
+        byte kind;
+        switch (expr.operator.type)
+        {
+            case PLUS: kind = Arena.ADD; break;
+            case MINUS: kind = Arena.SUBTRACT; break;
+            case STAR: kind = Arena.MULTIPLY; break;
+            case SLASH: kind = Arena.DIVIDE; break;
+            case GREATER: kind = Arena.GREATER; break;
+            case GREATER_EQUAL: kind = Arena.GREATER_EQUAL; break;
+            case LESS: kind = Arena.LESS; break;
+            case LESS_EQUAL: kind = Arena.LESS_EQUAL; break;
+            case EQUAL_EQUAL: kind = Arena.EQUAL; break;
+            case BANG_EQUAL: kind = Arena.NOT_EQUAL; break;
+            default: throw new IllegalArgumentException("Unknown binary operator " + expr.operator.type);
+        }
+
+        int left = encode(expr.left);
+        int right = encode(expr.right);
+        return arena.add(kind, left, right, Arena.NONE, expr.operator.line);
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr)
+    {
+        int callee = encode(expr.callee);
+        List<Integer> arguments = new ArrayList<>(expr.arguments.size());
+        for (Expr argument : expr.arguments)
+        {
+            arguments.add(encode(argument));
+        }
+        return arena.add(Arena.CALL, callee, arena.list(arguments), Arena.NONE, expr.paren.line);
+    }
+
+    @Override
+    public Integer visitGetExpr(Expr.Get expr)
+    {
+        int object = encode(expr.object);
+        return arena.add(Arena.GET, object, arena.name(expr.name), Arena.NONE, expr.name.line);
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr)
+    {
+        return encode(expr.expression);
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr)
+    {
+        return arena.add(Arena.LITERAL, arena.constant(expr.value), Arena.NONE, Arena.NONE, 0);
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr)
+    {
+        int left = encode(expr.left);
+        int right = encode(expr.right);
+        byte kind = expr.operator.type == TokenType.OR ? Arena.OR : Arena.AND;
+        return arena.add(kind, left, right, Arena.NONE, expr.operator.line);
+    }
+
+    @Override
+    public Integer visitSetExpr(Expr.Set expr)
+    {
+        int object = encode(expr.object);
+        int value = encode(expr.value);
+        return arena.add(Arena.SET, object, arena.name(expr.name), value, expr.name.line);
+    }
+
+    @Override
+    public Integer visitSuperExpr(Expr.Super expr)
+    {
+        return arena.add(Arena.SUPER, interpreter.depth(expr), arena.name(expr.method), Arena.NONE,
+                expr.method.line);
+    }
+
+    @Override
+    public Integer visitThisExpr(Expr.This expr)
+    {
+        return variable(expr, expr.keyword);
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr)
+    {
+        int right = encode(expr.right);
+        byte kind = expr.operator.type == TokenType.MINUS ? Arena.NEGATE : Arena.NOT;
+        return arena.add(kind, right, Arena.NONE, Arena.NONE, expr.operator.line);
+    }
+
+    @Override
+    public Integer visitTernaryExpr(Expr.Ternary expr)
+    {
+        int condition = encode(expr.condition);
+        int ifTrue = encode(expr.ifTrue);
+        int ifFalse = encode(expr.ifFalse);
+        return arena.add(Arena.TERNARY, condition, ifTrue, ifFalse, 0);
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr)
+    {
+        return variable(expr, expr.name);
+    }
+
+    @Override
+    public Integer visitHoistedExpr(Expr.Hoisted expr)
+    {
+        int expression = encode(expr.expression);
+        int distance = interpreter.depth(expr);
+        return arena.add(Arena.HOISTED, distance, slot(distance, expr.name), expression, expr.name.line);
+    }
+
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt)
+    {
+        beginScope();
+        int statements = arena.list(encodeAll(stmt.statements));
+        int slots = endScope();
+        return arena.add(Arena.BLOCK, statements, slots, Arena.NONE, 0);
+    }
+
+    @Override
+    public Integer visitClassStmt(Stmt.Class stmt)
+    {
+        int slot = declare(stmt.name);
+        List<Integer> nodes = new ArrayList<>(stmt.methods.size() + 1);
+        nodes.add(encode(stmt.superclass));
+
+        if (stmt.superclass != null)
+        {
+            beginScope();
+            declare(new Token(TokenType.SUPER, "super", null, stmt.name.line));
+        }
+
+        beginScope();
+        declare(new Token(TokenType.THIS, "this", null, stmt.name.line));
+
+        for (Stmt.Function method : stmt.methods)
+        {
+            nodes.add(declaration(method));
+        }
+
+        endScope();
+
+        if (stmt.superclass != null)
+        {
+            endScope();
+        }
+
+        return arena.add(Arena.CLASS, arena.name(stmt.name), slot, arena.list(nodes), stmt.name.line);
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt)
+    {
+        return arena.add(Arena.EXPRESSION, encode(stmt.expression), Arena.NONE, Arena.NONE, 0);
+    }
+
+    @Override
+    public Integer visitFunctionStmt(Stmt.Function stmt)
+    {
+        int slot = declare(stmt.name);
+        return arena.add(Arena.FUNCTION, declaration(stmt), slot, Arena.NONE, stmt.name.line);
+    }
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt)
+    {
+        int condition = encode(stmt.condition);
+        int thenBranch = encode(stmt.thenBranch);
+        int elseBranch = stmt.elseBranch == null ? Arena.NONE : encode(stmt.elseBranch);
+        return arena.add(Arena.IF, condition, thenBranch, elseBranch, 0);
+    }
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt)
+    {
+        return arena.add(Arena.PRINT, encode(stmt.expression), Arena.NONE, Arena.NONE, 0);
+    }
+
+    @Override
+    public Integer visitReturnStmt(Stmt.Return stmt)
+    {
+        return arena.add(Arena.RETURN, encode(stmt.value), Arena.NONE, Arena.NONE, stmt.keyword.line);
+    }
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt)
+    {
+        int initializer = encode(stmt.initializer);
+        return arena.add(Arena.VAR, arena.name(stmt.name), declare(stmt.name), initializer, stmt.name.line);
+    }
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt)
+    {
+        int condition = encode(stmt.condition);
+        int body = encode(stmt.body);
+        return arena.add(Arena.WHILE, condition, body, Arena.NONE, 0);
+    }
+
+    @Override
+    public Integer visitExitStmt(Stmt.Exit stmt)
+    {
+        return arena.add(Arena.EXIT, encode((Expr)stmt.value), Arena.NONE, Arena.NONE, 0);
+    }
+
+    @Override
+    public Integer visitYieldStmt(Stmt.Yield stmt)
+    {
+        return arena.add(Arena.YIELD, encode(stmt.value), Arena.NONE, Arena.NONE, stmt.keyword.line);
+    }
+
+    @Override
+    public Integer visitCloseStmt(Stmt.Close stmt)
+    {
+        int iterator = encode(stmt.iterator);
+        int body = encode(stmt.body);
+        return arena.add(Arena.CLOSE, iterator, body, Arena.NONE, 0);
+    }
+}
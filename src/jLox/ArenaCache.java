@@ -0,0 +1,246 @@
+package jLox;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Directory of resolved programs encoded in arenas, so a script that did not change since its last
+ * run is executed without being scanned, parsed and resolved again.
+ * Entries are named by a SHA-256 of the encoding format, the charset and the source, and written to
+ * a temporary file first so runs reading the cache at the same time never see a partial entry
+ */
+class ArenaCache
+{
+    // bump whenever the arena encoding or anything deciding its content (parser, optimizer, resolver) changes
+    static final int FORMAT = 4;
+
+    private static final int MAGIC = 0x4a4c4f58; // JLOX
+
+    private static final byte NIL = 0;
+    private static final byte NUMBER = 1;
+    private static final byte STRING = 2;
+    private static final byte BOOLEAN = 3;
+
+    private final Path directory;
+
+    ArenaCache(Path directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the directory named by JLOX_CACHE_DIR, or .cache/jlox in the home directory
+     */
+    static Path defaultDirectory()
+    {
+        String directory = System.getenv("JLOX_CACHE_DIR");
+        if (directory != null && !directory.isEmpty())
+        {
+            return Paths.get(directory);
+        }
+        return Paths.get(System.getProperty("user.home"), ".cache", "jlox");
+    }
+
+    /**
+     * Computes the key of a source
+     * @param source The bytes of the script
+     * @param charset The charset the script is decoded with
+     * @return the hex key
+     */
+    static String key(byte[] source, Charset charset)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(ByteBuffer.allocate(4).putInt(0, FORMAT));
+            digest.update(charset.name().getBytes(StandardCharsets.US_ASCII));
+            digest.update((byte)0);
+            digest.update(source);
+
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest())
+            {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Loads a cached program
+     * @param key The key of the source
+     * @return the program, null if it is not cached or the entry can't be read
+     */
+    Program load(String key)
+    {
+        Path path = directory.resolve(key + ".arena");
+        if (!Files.isRegularFile(path))
+        {
+            return null;
+        }
+
+        try
+        {
+            return read(ByteBuffer.wrap(Files.readAllBytes(path)));
+        }
+        catch (IOException | BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Stores a program, failures are ignored since the cache only saves time
+     * @param key The key of the source
+     * @param program The program
+     */
+    void store(String key, Program program)
+    {
+        try
+        {
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            try
+            {
+                Files.write(temporary, write(program.arena, program.statements));
+                Files.move(temporary, directory.resolve(key + ".arena"), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            finally
+            {
+                Files.deleteIfExists(temporary);
+            }
+        }
+        catch (IOException | UnsupportedOperationException e)
+        {
+            // running without the cache
+        }
+    }
+
+    private static byte[] write(Arena arena, int program)
+    {
+        byte[][] constants = new byte[arena.constantCount][];
+        int constantBytes = 0;
+
+        for (int i = 0; i < arena.constantCount; i++)
+        {
+            constants[i] = constant(arena.constants[i]);
+            constantBytes += constants[i].length;
+        }
+
+        int size = arena.size;
+        ByteBuffer buffer = ByteBuffer.allocate(6 * 4 + size * 17 + arena.listSize * 4 + constantBytes);
+        buffer.putInt(MAGIC).putInt(FORMAT).putInt(program).putInt(size).putInt(arena.listSize)
+                .putInt(arena.constantCount);
+
+        buffer.put(arena.kinds, 0, size);
+        putInts(buffer, arena.first, size);
+        putInts(buffer, arena.second, size);
+        putInts(buffer, arena.third, size);
+        putInts(buffer, arena.lines, size);
+        putInts(buffer, arena.lists, arena.listSize);
+
+        for (byte[] constant : constants)
+        {
+            buffer.put(constant);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] constant(Object value)
+    {
+        if (value == null)
+        {
+            return new byte[] {NIL};
+        }
+        if (value instanceof Double)
+        {
+            return ByteBuffer.allocate(9).put(NUMBER).putDouble((Double)value).array();
+        }
+        if (value instanceof Boolean)
+        {
+            return new byte[] {BOOLEAN, (byte)((Boolean)value ? 1 : 0)};
+        }
+
+        byte[] text = ((String)value).getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(5 + text.length).put(STRING).putInt(text.length).put(text).array();
+    }
+
+    private static Program read(ByteBuffer buffer)
+    {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT)
+        {
+            return null;
+        }
+
+        int program = buffer.getInt();
+        int size = buffer.getInt();
+        int listSize = buffer.getInt();
+        int constantCount = buffer.getInt();
+
+        Arena arena = new Arena();
+        arena.size = size;
+        arena.kinds = new byte[size];
+        buffer.get(arena.kinds);
+        arena.first = getInts(buffer, size);
+        arena.second = getInts(buffer, size);
+        arena.third = getInts(buffer, size);
+        arena.lines = getInts(buffer, size);
+        arena.listSize = listSize;
+        arena.lists = getInts(buffer, listSize);
+        arena.constantCount = constantCount;
+        arena.constants = new Object[constantCount];
+
+        for (int i = 0; i < constantCount; i++)
+        {
+            byte tag = buffer.get();
+            switch (tag)
+            {
+                case NIL:
+                    break;
+                case NUMBER:
+                    arena.constants[i] = buffer.getDouble();
+                    break;
+                case BOOLEAN:
+                    arena.constants[i] = buffer.get() != 0;
+                    break;
+                case STRING:
+                    byte[] text = new byte[buffer.getInt()];
+                    buffer.get(text);
+                    arena.constants[i] = new String(text, StandardCharsets.UTF_8);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown constant tag " + tag);
+            }
+        }
+
+        return new Program(arena, program);
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] values, int count)
+    {
+        buffer.asIntBuffer().put(values, 0, count);
+        buffer.position(buffer.position() + count * 4);
+    }
+
+    private static int[] getInts(ByteBuffer buffer, int count)
+    {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+}
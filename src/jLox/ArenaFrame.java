@@ -0,0 +1,28 @@
+package jLox;
+
+/**
+ * Scope of an arena program at runtime, locals are kept in the slots the ArenaBuilder gave them
+ */
+class ArenaFrame
+{
+    final ArenaFrame enclosing;
+    final Object[] slots;
+
+    ArenaFrame(ArenaFrame enclosing, int size)
+    {
+        this.enclosing = enclosing;
+        this.slots = new Object[size];
+    }
+
+    ArenaFrame ancestor(int distance)
+    {
+        ArenaFrame frame = this;
+
+        for (int i = 0; i < distance; i++)
+        {
+            frame = frame.enclosing;
+        }
+
+        return frame;
+    }
+}
@@ -0,0 +1,71 @@
+package jLox;
+
+import java.util.List;
+
+/**
+ * Function declared by an arena program. It has no tree declaration, the declaration node in the
+ * arena gives its name, arity and body, and it closes over an ArenaFrame
+ */
+class ArenaFunction extends LoxFunction
+{
+    private final ArenaInterpreter interpreter;
+    final int declaration;
+    final ArenaFrame frame;
+    final boolean isInitializer;
+
+    ArenaFunction(ArenaInterpreter interpreter, int declaration, ArenaFrame frame, boolean isInitializer)
+    {
+        super(null, null, isInitializer);
+        this.interpreter = interpreter;
+        this.declaration = declaration;
+        this.frame = frame;
+        this.isInitializer = isInitializer;
+    }
+
+    @Override
+    LoxFunction bind(LoxInstance instance)
+    {
+        ArenaFrame environment = new ArenaFrame(frame, 1);
+        environment.slots[0] = instance;
+        return new ArenaFunction(interpreter, declaration, environment, isInitializer);
+    }
+
+    /**
+     * @return Indicator of whether the Resolver found the function to be pure and still does
+     */
+    boolean isPure()
+    {
+        return interpreter.arena.kinds[declaration] == Arena.PURE_DECLARATION && !interpreter.host.isRevoked(declaration);
+    }
+
+    @Override
+    boolean isGenerator(Interpreter host)
+    {
+        return interpreter.arena.kinds[declaration] == Arena.GENERATOR_DECLARATION;
+    }
+
+    @Override
+    Object invoke(Interpreter host, List<Object> arguments)
+    {
+        Arena arena = interpreter.arena;
+        ArenaFrame environment = new ArenaFrame(frame, Arena.slotCount(arena.third[declaration]));
+        for (int i = 0; i < arguments.size(); i++)
+        {
+            environment.slots[i] = arguments.get(i);
+        }
+
+        return host.arenaContext(interpreter).invoke(this, environment);
+    }
+
+    @Override
+    public int arity()
+    {
+        return Arena.arity(interpreter.arena.third[declaration]);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<fn " + interpreter.arena.name(interpreter.arena.first[declaration]) + ">";
+    }
+}
@@ -0,0 +1,521 @@
+package jLox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Executes programs encoded in an Arena.
+ * Locals are read from the slots of ArenaFrames at the distance the Resolver found, globals and
+ * natives are shared with the tree interpreter, which is passed to the natives when they are called
+ */
+class ArenaInterpreter
+{
+    final Arena arena;
+    final Interpreter host;
+    private final Environment globals;
+    private ArenaFrame frame = null;
+    private Object returnValue = null;
+
+    // callees bound to the calls through global names, valid while the globals version is the same
+    private LoxCallable[] boundCallees = new LoxCallable[0];
+    private int[] boundVersions = new int[0];
+
+    ArenaInterpreter(Interpreter host, Arena arena)
+    {
+        this.host = host;
+        this.arena = arena;
+        this.globals = host.globals;
+    }
+
+    /**
+     * Executes top level statements, reporting the runtime error that stops them
+     * @param statements The offset of the statement list in the arena
+     */
+    void interpret(int statements)
+    {
+        try
+        {
+            executeAll(statements);
+        }
+        catch (RuntimeError error)
+        {
+            host.reporter.runtimeError(error);
+        }
+    }
+
+    /**
+     * Executes statements in a frame
+     * @return Indicator of whether a return statement ended the statements, its value is in returnValue
+     */
+    private boolean executeBlock(int statements, ArenaFrame frame)
+    {
+        ArenaFrame previous = this.frame;
+
+        try
+        {
+            this.frame = frame;
+            return executeAll(statements);
+        }
+        finally
+        {
+            this.frame = previous;
+        }
+    }
+
+    private boolean executeAll(int statements)
+    {
+        int[] lists = arena.lists;
+        int end = statements + lists[statements];
+
+        for (int i = statements + 1; i <= end; i++)
+        {
+            if (execute(lists[i]))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Executes a statement. A return statement does not unwind the stack with an exception, the
+     * blocks, loops and branches around it stop and pass the indicator up to the function call
+     * @param node The statement node
+     * @return Indicator of whether a return statement was executed
+     */
+    private boolean execute(int node)
+    {
+        Arena arena = this.arena;
+        int a = arena.first[node];
+        int b = arena.second[node];
+        int c = arena.third[node];
+
+        switch (arena.kinds[node])
+        {
+            case Arena.EXPRESSION:
+                evaluate(a);
+                return false;
+            case Arena.PRINT:
+                host.out.println(Interpreter.stringify(evaluate(a)));
+                return false;
+            case Arena.VAR:
+                define(a, b, c == Arena.NONE ? new Environment.Undefined() : evaluate(c));
+                return false;
+            case Arena.BLOCK:
+                return executeBlock(a, new ArenaFrame(frame, b));
+            case Arena.IF:
+                if (Interpreter.isTruthy(evaluate(a)))
+                {
+                    return execute(b);
+                }
+                return c != Arena.NONE && execute(c);
+            case Arena.WHILE:
+                while (Interpreter.isTruthy(evaluate(a)))
+                {
+                    if (execute(b))
+                    {
+                        return true;
+                    }
+                }
+                return false;
+            case Arena.FUNCTION:
+                define(arena.first[a], b, new ArenaFunction(this, a, frame, false));
+                return false;
+            case Arena.RETURN:
+                returnValue = a == Arena.NONE ? null : evaluate(a);
+                return true;
+            case Arena.CLASS:
+                defineClass(node);
+                return false;
+            case Arena.YIELD:
+                host.yieldValue(a == Arena.NONE ? null : evaluate(a));
+                return false;
+            case Arena.EXIT:
+                throw new Exit(Interpreter.exitStatus(evaluate(a)));
+            case Arena.CLOSE:
+                boolean returned;
+                try
+                {
+                    returned = execute(b);
+                }
+                catch (RuntimeException | Error e)
+                {
+                    LoxIterator.closeIterator(host, evaluate(a));
+                    throw e;
+                }
+                if (returned)
+                {
+                    LoxIterator.closeIterator(host, evaluate(a));
+                }
+                return returned;
+            default:
+                throw new IllegalStateException("Not a statement: " + arena.kinds[node]);
+        }
+    }
+
+    private void define(int name, int slot, Object value)
+    {
+        if (slot == Arena.GLOBAL)
+        {
+            globals.define(arena.name(name), value);
+        }
+        else
+        {
+            frame.slots[slot] = value;
+        }
+    }
+
+    private void defineClass(int node)
+    {
+        int name = arena.first[node];
+        int slot = arena.second[node];
+        int nodes = arena.third[node];
+        int superclassNode = arena.lists[nodes + 1];
+        Object superclass = null;
+
+        if (superclassNode != Arena.NONE)
+        {
+            superclass = evaluate(superclassNode);
+            if (!(superclass instanceof LoxClass))
+            {
+                throw error(superclassNode, "Superclass must be a class, you turd.");
+            }
+        }
+
+        define(name, slot, null);
+
+        if (superclassNode != Arena.NONE)
+        {
+            frame = new ArenaFrame(frame, 1);
+            frame.slots[0] = superclass;
+        }
+
+        Map<String, LoxFunction> methods = new HashMap<>();
+        int end = nodes + arena.lists[nodes];
+
+        for (int i = nodes + 2; i <= end; i++)
+        {
+            int method = arena.lists[i];
+            String methodName = arena.name(arena.first[method]);
+            methods.put(methodName, new ArenaFunction(this, method, frame, methodName.equals("init")));
+        }
+
+        LoxClass klass = new LoxClass(arena.name(name), (LoxClass)superclass, methods);
+
+        if (superclassNode != Arena.NONE)
+        {
+            frame = frame.enclosing;
+        }
+
+        if (slot == Arena.GLOBAL)
+        {
+            globals.assign(arena.name(name), arena.lines[node], klass);
+        }
+        else
+        {
+            frame.slots[slot] = klass;
+        }
+    }
+
+    private Object evaluate(int node)
+    {
+        Arena arena = this.arena;
+        int a = arena.first[node];
+        int b = arena.second[node];
+        Object left;
+        Object right;
+
+        switch (arena.kinds[node])
+        {
+            case Arena.LITERAL:
+                return arena.constants[a];
+            case Arena.LOCAL:
+                return frame.ancestor(a).slots[b];
+            case Arena.GLOBAL_VARIABLE:
+                return globals.get(arena.name(a), arena.lines[node]);
+            case Arena.ASSIGN_OUTER:
+            case Arena.ASSIGN_LOCAL:
+                if (host.parallel && arena.kinds[node] == Arena.ASSIGN_OUTER)
+                {
+                    throw error(node, Interpreter.PARALLEL_ASSIGNMENT);
+                }
+                left = evaluate(arena.third[node]);
+                frame.ancestor(a).slots[b] = left;
+                return left;
+            case Arena.ASSIGN_GLOBAL:
+                if (host.parallel)
+                {
+                    throw error(node, Interpreter.PARALLEL_ASSIGNMENT);
+                }
+                left = evaluate(arena.third[node]);
+                globals.assign(arena.name(a), arena.lines[node], left);
+                return left;
+            case Arena.ADD:
+                left = evaluate(a);
+                right = evaluate(b);
+                if (left instanceof Double && right instanceof Double)
+                    return (double)left + (double)right;
+                if (left instanceof String && right instanceof String)
+                    return left + (String)right;
+                throw error(node, "Operands must be two numbers or two strings");
+            case Arena.SUBTRACT:
+                left = evaluate(a);
+                right = evaluate(b);
+                checkNumberOperands(node, left, right);
+                return (double)left - (double)right;
+            case Arena.MULTIPLY:
+                left = evaluate(a);
+                right = evaluate(b);
+                checkNumberOperands(node, left, right);
+                return (double)left * (double)right;
+            case Arena.DIVIDE:
+                left = evaluate(a);
+                right = evaluate(b);
+                checkNumberOperands(node, left, right);
+                return (double)left / (double)right;
+            case Arena.GREATER:
+                left = evaluate(a);
+                right = evaluate(b);
+                checkNumberOperands(node, left, right);
+                return (double)left > (double)right;
+            case Arena.GREATER_EQUAL:
+                left = evaluate(a);
+                right = evaluate(b);
+                checkNumberOperands(node, left, right);
+                return (double)left >= (double)right;
+            case Arena.LESS:
+                left = evaluate(a);
+                right = evaluate(b);
+                checkNumberOperands(node, left, right);
+                return (double)left < (double)right;
+            case Arena.LESS_EQUAL:
+                left = evaluate(a);
+                right = evaluate(b);
+                checkNumberOperands(node, left, right);
+                return (double)left <= (double)right;
+            case Arena.EQUAL:
+                left = evaluate(a);
+                return Interpreter.isEqual(left, evaluate(b));
+            case Arena.NOT_EQUAL:
+                left = evaluate(a);
+                return !Interpreter.isEqual(left, evaluate(b));
+            case Arena.AND:
+                left = evaluate(a);
+                return Interpreter.isTruthy(left) ? evaluate(b) : left;
+            case Arena.OR:
+                // like Interpreter.visitLogicalExpr, which tests the left node rather than its value
+                return evaluate(a);
+            case Arena.NEGATE:
+                right = evaluate(a);
+                if (!(right instanceof Double))
+                    throw error(node, "Operand must be a number.");
+                return -(double)right;
+            case Arena.NOT:
+                return !Interpreter.isTruthy(evaluate(a));
+            case Arena.TERNARY:
+                Object condition = evaluate(a);
+                left = evaluate(b);
+                right = evaluate(arena.third[node]);
+                return (boolean)condition ? left : right;
+            case Arena.CALL:
+                return call(node);
+            case Arena.GET:
+                left = evaluate(a);
+                if (left instanceof LoxInstance)
+                {
+                    return ((LoxInstance)left).get(arena.name(b), arena.lines[node]);
+                }
+                throw error(node, "Only instances have properties");
+            case Arena.SET:
+                left = evaluate(a);
+                if (!(left instanceof LoxInstance))
+                {
+                    throw error(node, "Only instances have fields.");
+                }
+                right = evaluate(arena.third[node]);
+                try
+                {
+                    ((LoxInstance)left).set(arena.name(b), right);
+                }
+                catch (NativeError error)
+                {
+                    throw error(node, error.getMessage());
+                }
+                return right;
+            case Arena.SUPER:
+                return superMethod(node);
+            case Arena.HOISTED:
+                ArenaFrame scope = frame.ancestor(a);
+                left = scope.slots[b];
+                if (left instanceof Environment.Undefined)
+                {
+                    left = evaluate(arena.third[node]);
+                    scope.slots[b] = left;
+                }
+                return left;
+            default:
+                throw new IllegalStateException("Not an expression: " + arena.kinds[node]);
+        }
+    }
+
+    /**
+     * Evaluates a call. Like the tree interpreter, a callee read from a global is bound to the call
+     * until a global holding a callable is reassigned. Arena functions get the arguments evaluated
+     * directly into the slots of their frame
+     * @param node The call node
+     * @return the value of the call
+     */
+    private Object call(int node)
+    {
+        int callee = arena.first[node];
+        int list = arena.second[node];
+        int count = arena.lists[list];
+        Object function = null;
+        int version = 0;
+
+        if (arena.kinds[callee] == Arena.GLOBAL_VARIABLE)
+        {
+            if (node >= boundCallees.length)
+            {
+                boundCallees = Arrays.copyOf(boundCallees, arena.kinds.length);
+                boundVersions = Arrays.copyOf(boundVersions, arena.kinds.length);
+            }
+
+            version = globals.version();
+            if (boundCallees[node] != null && boundVersions[node] == version)
+            {
+                function = boundCallees[node];
+            }
+        }
+
+        if (function == null)
+        {
+            function = evaluate(callee);
+        }
+
+        if (function instanceof ArenaFunction && ((ArenaFunction)function).cache() == null
+                && ((ArenaFunction)function).arity() == count && !((ArenaFunction)function).isGenerator(host))
+        {
+            ArenaFunction target = (ArenaFunction)function;
+            ArenaFrame environment = new ArenaFrame(target.frame, Arena.slotCount(arena.third[target.declaration]));
+
+            for (int i = 0; i < count; i++)
+            {
+                environment.slots[i] = evaluate(arena.lists[list + 1 + i]);
+            }
+
+            bind(node, callee, target, version);
+            return invoke(target, environment);
+        }
+
+        List<Object> arguments = new ArrayList<>(count);
+
+        for (int i = 1; i <= count; i++)
+        {
+            arguments.add(evaluate(arena.lists[list + i]));
+        }
+
+        if (!(function instanceof LoxCallable))
+        {
+            throw error(node, "Object not callable;");
+        }
+
+        LoxCallable target = (LoxCallable)function;
+
+        if (count != target.arity())
+        {
+            throw error(node, "Expected " + target.arity() + " arguments but got " + count + ".");
+        }
+
+        bind(node, callee, target, version);
+
+        try
+        {
+            return target.call(host, arguments);
+        }
+        catch (NativeError error)
+        {
+            throw error(node, error.getMessage());
+        }
+    }
+
+    private void bind(int node, int callee, LoxCallable function, int version)
+    {
+        if (arena.kinds[callee] == Arena.GLOBAL_VARIABLE)
+        {
+            boundCallees[node] = function;
+            boundVersions[node] = version;
+        }
+    }
+
+    /**
+     * Runs the body of a function in a frame holding its arguments. A body that only returns an
+     * expression is evaluated directly
+     * @param function The function
+     * @param environment The frame of the call
+     * @return the value of the call
+     */
+    Object invoke(ArenaFunction function, ArenaFrame environment)
+    {
+        int body = arena.second[function.declaration];
+
+        if (!function.isInitializer && arena.lists[body] == 1 && arena.kinds[arena.lists[body + 1]] == Arena.RETURN
+                && arena.first[arena.lists[body + 1]] != Arena.NONE)
+        {
+            ArenaFrame previous = this.frame;
+
+            try
+            {
+                this.frame = environment;
+                return evaluate(arena.first[arena.lists[body + 1]]);
+            }
+            finally
+            {
+                this.frame = previous;
+            }
+        }
+
+        boolean returned = executeBlock(body, environment);
+
+        if (function.isInitializer)
+        {
+            return function.frame.slots[0];
+        }
+        if (returned)
+        {
+            Object value = returnValue;
+            returnValue = null;
+            return value;
+        }
+        return null;
+    }
+
+    private Object superMethod(int node)
+    {
+        int distance = arena.first[node];
+        String name = arena.name(arena.second[node]);
+        LoxClass superclass = (LoxClass)frame.ancestor(distance).slots[0];
+        LoxInstance object = (LoxInstance)frame.ancestor(distance - 1).slots[0];
+        LoxFunction method = superclass.findMethod(name);
+
+        if (method == null)
+        {
+            throw error(node, "Undefined property '" + name + "'.");
+        }
+        return method.bind(object);
+    }
+
+    private void checkNumberOperands(int node, Object left, Object right)
+    {
+        if (!(left instanceof Double && right instanceof Double))
+            throw error(node, "Operands must be numbers n'shit");
+    }
+
+    private RuntimeError error(int node, String message)
+    {
+        return new RuntimeError(new Token(TokenType.IDENTIFIER, "", null, arena.lines[node]), message);
+    }
+}
@@ -0,0 +1,230 @@
+package jLox;
+
+import java.util.List;
+
+/**
+ * Base class for analysis passes that need to visit every node of a resolved tree.
+ * Each visitor method walks the children of its node, subclasses override the
+ * nodes they are interested in and call super to keep walking
+ */
+abstract class AstWalker implements Expr.Visitor<Void>, Stmt.Visitor<Void>
+{
+    void walk(List<Stmt> statements)
+    {
+        for (Stmt statement : statements)
+        {
+            walk(statement);
+        }
+    }
+
+    void walk(Stmt stmt)
+    {
+        if (stmt != null)
+        {
+            stmt.accept(this);
+        }
+    }
+
+    void walk(Expr expr)
+    {
+        if (expr != null)
+        {
+            expr.accept(this);
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt)
+    {
+        walk(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt)
+    {
+        walk(stmt.superclass);
+        for (Stmt.Function method : stmt.methods)
+        {
+            walk(method);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt)
+    {
+        walk(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt)
+    {
+        walk(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt)
+    {
+        walk(stmt.condition);
+        walk(stmt.thenBranch);
+        walk(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt)
+    {
+        walk(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt)
+    {
+        walk(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt)
+    {
+        walk(stmt.condition);
+        walk(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt)
+    {
+        walk(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitExitStmt(Stmt.Exit stmt)
+    {
+        walk((Expr)stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt)
+    {
+        walk(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitCloseStmt(Stmt.Close stmt)
+    {
+        walk(stmt.iterator);
+        walk(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr)
+    {
+        walk(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr)
+    {
+        walk(expr.left);
+        walk(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr)
+    {
+        walk(expr.callee);
+        for (Expr argument : expr.arguments)
+        {
+            walk(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr)
+    {
+        walk(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr)
+    {
+        walk(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr)
+    {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr)
+    {
+        walk(expr.left);
+        walk(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr)
+    {
+        walk(expr.object);
+        walk(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr)
+    {
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr)
+    {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr)
+    {
+        walk(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr)
+    {
+        walk(expr.condition);
+        walk(expr.ifTrue);
+        walk(expr.ifFalse);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr)
+    {
+        return null;
+    }
+
+    @Override
+    public Void visitHoistedExpr(Expr.Hoisted expr)
+    {
+        walk(expr.expression);
+        return null;
+    }
+}
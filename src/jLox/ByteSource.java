@@ -0,0 +1,67 @@
+package jLox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Source text read straight out of a memory mapped file.
+ * Each byte is one character, which is what the scanner sees for ASCII compatible charsets since
+ * Lox only needs ASCII outside of strings and comments. Ranges copied out of the source
+ * (string literals, names) are decoded with the file charset
+ */
+class ByteSource implements CharSequence
+{
+    private final ByteBuffer bytes;
+    private final Charset charset;
+
+    private ByteSource(ByteBuffer bytes, Charset charset)
+    {
+        this.bytes = bytes;
+        this.charset = charset;
+    }
+
+    /**
+     * Maps a file into memory
+     * @param path The file path
+     * @param charset The charset of the file, must be ASCII compatible
+     * @return the source
+     * @throws IOException if the file can't be mapped
+     */
+    static ByteSource map(Path path, Charset charset) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            return new ByteSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), charset);
+        }
+    }
+
+    @Override
+    public int length()
+    {
+        return bytes.limit();
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        return (char)(bytes.get(index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        byte[] range = new byte[end - start];
+        bytes.duplicate().position(start).get(range);
+        return new String(range, charset);
+    }
+
+    @Override
+    public String toString()
+    {
+        return subSequence(0, length()).toString();
+    }
+}
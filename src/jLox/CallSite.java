@@ -0,0 +1,47 @@
+package jLox;
+
+/**
+ * Information attached to a call through a global name.
+ * The callee is bound by the first call and stays valid while the globals version does not change,
+ * the Inliner can also mark the call to be evaluated inline
+ */
+class CallSite
+{
+    Stmt.Function inline;
+    Expr inlineBody;
+    Binding binding;
+
+    static class Binding
+    {
+        final LoxCallable function;
+        final int version;
+        final boolean inline;
+
+        Binding(LoxCallable function, int version, boolean inline)
+        {
+            this.function = function;
+            this.version = version;
+            this.inline = inline;
+        }
+    }
+
+    /**
+     * Marks the call as inlinable
+     * @param function The function expected at the call, its body is a single return statement
+     */
+    void inline(Stmt.Function function)
+    {
+        this.inline = function;
+        this.inlineBody = ((Stmt.Return)function.body.get(0)).value;
+    }
+
+    /**
+     * Checks if a callee is the function the call was inlined for
+     * @param callee The value of the callee expression
+     * @return Indicator of whether the inlined body can be evaluated for the call
+     */
+    boolean inlines(Object callee)
+    {
+        return inline != null && callee instanceof LoxFunction && ((LoxFunction)callee).declaration == inline;
+    }
+}
@@ -1,6 +1,6 @@
 package jLox;
 
-public enum CallableType
+enum CallableType
 {
     FUNCTION,
     METHOD
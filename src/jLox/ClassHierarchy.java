@@ -0,0 +1,100 @@
+package jLox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Whole program analysis of the class declarations, run after the Resolver.
+ * A method name declared by a single class is monomorphic, property accesses with that name
+ * get an inline cache in the interpreter instead of searching the class chain each time.
+ * The declarations seen are kept between runs, when a later run (REPL line) declares the
+ * name in another class the sites annotated before are invalidated
+ */
+class ClassHierarchy extends AstWalker
+{
+    private final Interpreter interpreter;
+    private final Map<String, Set<Stmt.Function>> declarations = new HashMap<>();
+    private final Map<String, Set<Expr.Get>> sites = new HashMap<>();
+    private final Map<String, List<Expr.Get>> newSites = new HashMap<>();
+
+    ClassHierarchy(Interpreter interpreter)
+    {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * Adds the classes of a resolved program to the hierarchy and annotates its property accesses
+     * @param statements The resolved program
+     */
+    void analyze(List<Stmt> statements)
+    {
+        Set<String> declared = new HashSet<>();
+
+        new AstWalker()
+        {
+            @Override
+            public Void visitClassStmt(Stmt.Class stmt)
+            {
+                for (Stmt.Function method : stmt.methods)
+                {
+                    declarations.computeIfAbsent(method.name.lexeme(), k -> new HashSet<>()).add(method);
+                    declared.add(method.name.lexeme());
+                }
+                return super.visitClassStmt(stmt);
+            }
+        }.walk(statements);
+
+        for (String name : declared)
+        {
+            if (declarations.get(name).size() > 1 && sites.containsKey(name))
+            {
+                for (Expr.Get site : sites.remove(name))
+                {
+                    interpreter.devirtualize(site, null);
+                }
+            }
+        }
+
+        walk(statements);
+
+        newSites.forEach((name, gets) -> {
+            Set<Stmt.Function> methods = declarations.get(name);
+            if (methods == null || methods.size() != 1)
+            {
+                return;
+            }
+
+            Stmt.Function method = methods.iterator().next();
+            for (Expr.Get get : gets)
+            {
+                interpreter.devirtualize(get, method);
+            }
+            sites.computeIfAbsent(name, k -> new HashSet<>()).addAll(gets);
+        });
+        newSites.clear();
+    }
+
+    /**
+     * Stops tracking a property access whose tree was released
+     * @param expr The property access
+     */
+    void forget(Expr.Get expr)
+    {
+        Set<Expr.Get> gets = sites.get(expr.name.lexeme());
+        if (gets != null)
+        {
+            gets.remove(expr);
+        }
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr)
+    {
+        newSites.computeIfAbsent(expr.name.lexeme(), k -> new ArrayList<>()).add(expr);
+        return super.visitGetExpr(expr);
+    }
+}
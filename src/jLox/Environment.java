@@ -2,28 +2,76 @@ package jLox;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
-public class Environment
+class Environment
 {
+    // stands for nil in values, so a missing variable is found with a single lookup
+    // and values can be a ConcurrentHashMap, which can't hold nulls
+    static final Object NIL = new Object();
+
+    private static final AtomicIntegerFieldUpdater<Environment> VERSION =
+            AtomicIntegerFieldUpdater.newUpdater(Environment.class, "version");
+
     final Environment enclosing;
 
-    private final Map<String, Object> values = new HashMap<>();
+    private final boolean concurrent;
+    private final Map<String, Object> values;
+    private volatile int version = 0;
 
-    public static class Undefined {}
+    static class Undefined {}
 
     Environment()
     {
-        enclosing = null;
+        this(false);
+    }
+
+    /**
+     * Creates a global environment
+     * @param concurrent Indicator of whether variables may be read and written from several threads at
+     * once, the environments it encloses are concurrent too
+     */
+    Environment(boolean concurrent)
+    {
+        this.enclosing = null;
+        this.concurrent = concurrent;
+        this.values = concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
     }
 
     Environment(Environment enclosing)
     {
         this.enclosing = enclosing;
+        this.concurrent = enclosing.concurrent;
+        this.values = concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
     }
 
     void define(String name, Object value)
     {
-        values.put(name, value);
+        if (values.put(name, value == null ? NIL : value) instanceof LoxCallable)
+        {
+            VERSION.incrementAndGet(this);
+        }
+    }
+
+    /**
+     * @return a copy of the variables defined directly in this environment, by name
+     */
+    Map<String, Object> values()
+    {
+        Map<String, Object> copy = new HashMap<>();
+        values.forEach((name, value) -> copy.put(name, value == NIL ? null : value));
+        return copy;
+    }
+
+    /**
+     * Version of the bindings of callables, changes whenever a name holding a callable is
+     * redefined or assigned. Calls bound to a global callee are valid while it stays the same
+     * @return the version
+     */
+    int version()
+    {
+        return version;
     }
 
     Environment ancestor(int distance)
@@ -40,22 +88,38 @@ public class Environment
 
     Object getAt(int distance, String name)
     {
-        return ancestor(distance).values.get(name);
+        Object value = ancestor(distance).values.get(name);
+        return value == NIL ? null : value;
     }
 
     void assignAt(int distance, Token name, Object value)
     {
-        ancestor(distance).values.put(name.lexeme, value);
+        ancestor(distance).values.put(name.lexeme(), value == null ? NIL : value);
     }
 
     Object get(Token name)
     {
-       if (values.containsKey(name.lexeme))
+        return get(name.lexeme(), name.line);
+    }
+
+    /**
+     * Gets a variable by name, for callers that only keep the line of the name
+     * @param name The variable name
+     * @param line The line reported if the variable is undefined or uninitialized
+     * @return the value
+     */
+    Object get(String name, int line)
+    {
+       Object value = values.get(name);
+       if (value != null)
        {
-           Object value = values.get(name.lexeme);
+           if (value == NIL)
+           {
+               return null;
+           }
            if (value instanceof Undefined)
            {
-               throw new RuntimeError(name, "Uninitialized variable '" + name.lexeme + "'.");
+               throw new RuntimeError(token(name, line), "Uninitialized variable '" + name + "'.");
            }
 
            return value;
@@ -63,26 +127,40 @@ public class Environment
 
        if (enclosing != null)
        {
-           return enclosing.get(name);
+           return enclosing.get(name, line);
        }
 
-       throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+       throw new RuntimeError(token(name, line), "Undefined variable '" + name + "'.");
     }
 
     void assign(Token name, Object value)
     {
-        if (values.containsKey(name.lexeme))
+        assign(name.lexeme(), name.line, value);
+    }
+
+    void assign(String name, int line, Object value)
+    {
+        Object previous = values.replace(name, value == null ? NIL : value);
+        if (previous != null)
         {
-            values.put(name.lexeme, value);
+            if (previous instanceof LoxCallable)
+            {
+                VERSION.incrementAndGet(this);
+            }
             return;
         }
 
         if (enclosing != null)
         {
-            enclosing.assign(name, value);
+            enclosing.assign(name, line, value);
             return;
         }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        throw new RuntimeError(token(name, line), "Undefined variable '" + name + "'.");
+    }
+
+    private static Token token(String name, int line)
+    {
+        return new Token(TokenType.IDENTIFIER, name, null, line);
     }
 }
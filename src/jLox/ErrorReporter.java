@@ -0,0 +1,76 @@
+package jLox;
+
+import java.io.PrintStream;
+
+/**
+ * Prints the errors found while compiling and running programs and remembers that they happened.
+ * The scanner, parser, resolver and interpreter of a program all report to the same one, programs
+ * compiled or run side by side each use their own
+ */
+public class ErrorReporter
+{
+    private final PrintStream out;
+    private boolean hadError = false;
+    private boolean hadRuntimeError = false;
+
+    /**
+     * @param out The stream the errors are printed to
+     */
+    public ErrorReporter(PrintStream out)
+    {
+        this.out = out;
+    }
+
+    /**
+     * @return Indicator of whether a syntax or resolution error was reported
+     */
+    public boolean hadError()
+    {
+        return hadError;
+    }
+
+    /**
+     * @return Indicator of whether a runtime error was reported
+     */
+    public boolean hadRuntimeError()
+    {
+        return hadRuntimeError;
+    }
+
+    /**
+     * Forgets the syntax and resolution errors, so the next REPL line can run
+     */
+    void reset()
+    {
+        hadError = false;
+    }
+
+    void error(int line, String message)
+    {
+        report(line, "", message);
+    }
+
+    void error(Token token, String message)
+    {
+        if (token.type == TokenType.EOF)
+        {
+            report(token.line, " at end", message);
+        }
+        else
+        {
+            report(token.line, " at '" + token.lexeme() + "'", message);
+        }
+    }
+
+    private void report(int line, String where, String message)
+    {
+        out.println("[line " + line + "] error" + where + ": " + message);
+        hadError = true;
+    }
+
+    void runtimeError(RuntimeError error)
+    {
+        out.println(error.getMessage() + "\n[line " + error.token.line + ']');
+        hadRuntimeError = true;
+    }
+}
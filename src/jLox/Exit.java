@@ -0,0 +1,17 @@
+package jLox;
+
+/**
+ * Thrown by an exit statement to unwind the program up to whoever ran it: the command line exits the
+ * process with the status, Program.run and the script engine return it. An exit in a task ends the
+ * task and is thrown again by join
+ */
+class Exit extends RuntimeException
+{
+    final int status;
+
+    Exit(int status)
+    {
+        super(null, null, false, false);
+        this.status = status;
+    }
+}
@@ -19,6 +19,7 @@ abstract class Expr
 		R visitUnaryExpr(Unary expr);
 		R visitTernaryExpr(Ternary expr);
 		R visitVariableExpr(Variable expr);
+		R visitHoistedExpr(Hoisted expr);
 	}
 
 	static class Assign extends Expr
@@ -257,5 +258,23 @@ abstract class Expr
 		}
 	}
 
+	static class Hoisted extends Expr
+	{
+		final Token name;
+		final Expr expression;
+
+		@Override
+		<R> R accept(Visitor<R> visitor)
+		{
+			return visitor.visitHoistedExpr(this);
+		}
+
+		Hoisted(Token name, Expr expression)
+		{
+			this.name=name;
+			this.expression=expression;
+		}
+	}
+
 	abstract <R> R accept(Visitor<R> visitor);
 }
\ No newline at end of file
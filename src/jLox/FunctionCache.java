@@ -0,0 +1,30 @@
+package jLox;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded least recently used cache of the results of a memoized function, keyed on the argument values.
+ * Lookups reorder it too, callers lock it for every access
+ */
+class FunctionCache extends LinkedHashMap<List<Object>, Object>
+{
+    static final int DEFAULT_CAPACITY = 4096;
+
+    private final int capacity;
+    int hits = 0;
+    int misses = 0;
+
+    FunctionCache(int capacity)
+    {
+        super(16, 0.75f, true);
+        this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest)
+    {
+        return size() > capacity;
+    }
+}
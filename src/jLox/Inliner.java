@@ -0,0 +1,151 @@
+package jLox;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optimization pass run after the Resolver.
+ * Finds small, non recursive top level functions whose body is a single return statement
+ * and marks the global call sites to them, the interpreter then evaluates the returned
+ * expression in place of the call as long as the global still holds that function
+ */
+class Inliner extends AstWalker
+{
+    private static final int MAX_NODES = 24;
+
+    private final Interpreter interpreter;
+    private final Map<String, Stmt.Function> candidates = new HashMap<>();
+
+    Inliner(Interpreter interpreter)
+    {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * Collects the inlinable functions of a program and marks the calls to them
+     * @param statements The resolved program
+     */
+    void inline(List<Stmt> statements)
+    {
+        Set<String> rejected = new HashSet<>();
+
+        for (Stmt statement : statements)
+        {
+            if (statement instanceof Stmt.Function)
+            {
+                Stmt.Function function = (Stmt.Function)statement;
+                if (candidates.containsKey(function.name.lexeme()) || !isInlinable(function))
+                {
+                    rejected.add(function.name.lexeme());
+                }
+                candidates.put(function.name.lexeme(), function);
+            }
+            else if (statement instanceof Stmt.Var)
+            {
+                rejected.add(((Stmt.Var)statement).name.lexeme());
+            }
+            else if (statement instanceof Stmt.Class)
+            {
+                rejected.add(((Stmt.Class)statement).name.lexeme());
+            }
+        }
+
+        new AstWalker()
+        {
+            @Override
+            public Void visitAssignExpr(Expr.Assign expr)
+            {
+                if (interpreter.isGlobal(expr))
+                {
+                    rejected.add(expr.name.lexeme());
+                }
+                return super.visitAssignExpr(expr);
+            }
+        }.walk(statements);
+
+        candidates.keySet().removeAll(rejected);
+
+        if (!candidates.isEmpty())
+        {
+            walk(statements);
+        }
+    }
+
+    /**
+     * Marks the calls to the inlinable functions found so far in statements resolved afterwards,
+     * such as a function body materialized on its first call
+     * @param statements The resolved statements
+     */
+    void inlineCalls(List<Stmt> statements)
+    {
+        if (!candidates.isEmpty())
+        {
+            walk(statements);
+        }
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr)
+    {
+        if (expr.callee instanceof Expr.Variable && interpreter.isGlobal(expr.callee))
+        {
+            Stmt.Function function = candidates.get(((Expr.Variable)expr.callee).name.lexeme());
+
+            if (function != null && function.params.size() == expr.arguments.size())
+            {
+                interpreter.inline(expr, function);
+            }
+        }
+
+        return super.visitCallExpr(expr);
+    }
+
+    /**
+     * A function can be inlined when its body is only a return of a small expression
+     * that does not refer back to the function itself
+     * @param function The function declaration
+     * @return Indicator of whether calls to the function can be inlined
+     */
+    private boolean isInlinable(Stmt.Function function)
+    {
+        if (function.body.size() != 1 || !(function.body.get(0) instanceof Stmt.Return))
+        {
+            return false;
+        }
+
+        Expr value = ((Stmt.Return)function.body.get(0)).value;
+
+        if (value == null)
+        {
+            return false;
+        }
+
+        int[] nodes = {0};
+        boolean[] recursive = {false};
+
+        new AstWalker()
+        {
+            @Override
+            void walk(Expr expr)
+            {
+                nodes[0]++;
+                super.walk(expr);
+            }
+
+            @Override
+            public Void visitVariableExpr(Expr.Variable expr)
+            {
+                if (expr.name.lexeme().equals(function.name.lexeme()))
+                {
+                    recursive[0] = true;
+                }
+                return null;
+            }
+        }.walk(value);
+
+        return !recursive[0] && nodes[0] <= MAX_NODES;
+    }
+}
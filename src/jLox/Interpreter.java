@@ -1,19 +1,100 @@
 package jLox;
 
 import java.util.ArrayList;
+import java.io.PrintStream;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
 {
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
-    private final Scanner scanner = new Scanner(System.in);
+    final Environment globals;
+    final PrintStream out;
+    final ErrorReporter reporter;
+    final boolean threadSafe;
+    private Environment environment;
+    private final Map<Expr, Integer> locals;
+    private final Map<Expr.Call, CallSite> callSites;
+    private final Map<Expr.Get, MethodSite> methodSites;
+    final ClassHierarchy hierarchy;
+    private final Set<Stmt.Function> pureFunctions;
+    // arena declarations of the functions marked pure, and those whose mark was revoked after they were encoded
+    private final Map<Stmt.Function, Integer> pureDeclarations;
+    private final Set<Integer> revokedDeclarations;
+    private final Set<Stmt.Function> generators;
+    // assignments to a local declared outside the function assigning it
+    private final Set<Expr.Assign> outerAssignments;
+    private final List<LoxFunction> memoized;
+    final LoxActor.Metrics actorMetrics;
+    private final Map<Stmt.Function, LazyBody> deferredBodies;
+    private Resolver deferredResolver;
+    private Inliner deferredInliner;
+    private final AtomicInteger materializedCount;
+    private final Scanner scanner;
+
+    // executes arena functions called from this context when it was forked from an arena program
+    private ArenaInterpreter arenaContext = null;
+
+    // where yield statements hand their values over when this context runs the body of a generator
+    private LoxGenerator.Handoff generator = null;
+
+    // set in the contexts running the pieces of a parallel range and in the contexts they fork, their
+    // assignments to globals and to locals declared outside the assigning function would race
+    boolean parallel = false;
+    static final String PARALLEL_ASSIGNMENT = "Functions running in parallel can't assign variables declared outside them.";
+
+    Interpreter()
+    {
+        this(System.out, new ErrorReporter(System.err));
+    }
+
+    /**
+     * Creates an interpreter context with its own globals. Contexts share nothing, programs can be
+     * run by several of them on different threads at the same time
+     * @param out The stream print statements write to
+     * @param reporter Receives the runtime errors
+     */
+    Interpreter(PrintStream out, ErrorReporter reporter)
+    {
+        this(out, reporter, false);
+    }
+
+    /**
+     * Creates an interpreter context, optionally in thread safe mode: globals, closures and instance
+     * fields then live in concurrent maps, so tasks spawned by the program can share them
+     * @param out The stream print statements write to
+     * @param reporter Receives the runtime errors
+     * @param threadSafe Indicator of whether the program's tasks may write shared variables and fields
+     */
+    Interpreter(PrintStream out, ErrorReporter reporter, boolean threadSafe)
+    {
+        this.out = out;
+        this.reporter = reporter;
+        this.threadSafe = threadSafe;
+        globals = new Environment(threadSafe);
+        environment = globals;
+        // forked contexts read the resolution on other threads while the REPL or --stream adds to it
+        locals = new ConcurrentHashMap<>();
+        callSites = new ConcurrentHashMap<>();
+        methodSites = new ConcurrentHashMap<>();
+        hierarchy = new ClassHierarchy(this);
+        pureFunctions = ConcurrentHashMap.newKeySet();
+        pureDeclarations = new ConcurrentHashMap<>();
+        revokedDeclarations = ConcurrentHashMap.newKeySet();
+        generators = ConcurrentHashMap.newKeySet();
+        outerAssignments = ConcurrentHashMap.newKeySet();
+        memoized = new ArrayList<>();
+        actorMetrics = new LoxActor.Metrics();
+        deferredBodies = new ConcurrentHashMap<>();
+        materializedCount = new AtomicInteger();
+        scanner = new Scanner(System.in);
 
-    Interpreter() {
         globals.define("clock", new LoxCallable() {
             @Override
             public int arity() {
@@ -31,6 +112,44 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
             }
         });
 
+        globals.define("memoize", new LoxCallable()
+        {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments)
+            {
+                Object function = arguments.get(0);
+                if (hasDeferredBodies() && function instanceof LoxFunction)
+                {
+                    // purity depends on the whole call graph
+                    materializeAll();
+                }
+                if (!isPure(function))
+                {
+                    throw new NativeError("Only pure functions can be memoized.");
+                }
+
+                synchronized (memoized)
+                {
+                    if (((LoxFunction)function).cache() == null)
+                    {
+                        ((LoxFunction)function).memoize(FunctionCache.DEFAULT_CAPACITY);
+                        memoized.add((LoxFunction)function);
+                    }
+                }
+                return function;
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
         globals.define("input", new LoxCallable()
         {
             @Override
@@ -49,26 +168,491 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
                 return "<native fn>";
             }
         });
+
+        globals.define("spawn", new LoxCallable()
+        {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments)
+            {
+                Object function = arguments.get(0);
+                if (!(function instanceof LoxCallable) || ((LoxCallable)function).arity() != 0)
+                {
+                    throw new NativeError("Can only spawn functions without parameters.");
+                }
+                if (hasDeferredBodies())
+                {
+                    // materializing writes the resolution tables, which tasks read without locking
+                    materializeAll();
+                }
+                return LoxTask.spawn((LoxCallable)function, interpreter.fork());
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        globals.define("channel", new LoxCallable()
+        {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments)
+            {
+                Object capacity = arguments.get(0);
+                if (!(capacity instanceof Double) || (double)capacity < 0 || (double)capacity != Math.floor((double)capacity))
+                {
+                    throw new NativeError("Channel capacity must be a non negative integer.");
+                }
+                return new LoxChannel((int)(double)capacity);
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        globals.define("actor", new LoxCallable()
+        {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments)
+            {
+                Object instance = arguments.get(0);
+                if (!(instance instanceof LoxInstance) || instance instanceof NativeInstance)
+                {
+                    throw new NativeError("Can only make actors of instances.");
+                }
+                if (hasDeferredBodies())
+                {
+                    // materializing writes the resolution tables, which actors read without locking
+                    materializeAll();
+                }
+                return new LoxActor((LoxInstance)instance, interpreter.fork(), actorMetrics);
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        globals.define("array", new LoxCallable()
+        {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments)
+            {
+                Object length = arguments.get(0);
+                if (!(length instanceof Double) || (double)length < 0 || (double)length != Math.floor((double)length))
+                {
+                    throw new NativeError("Array length must be a non negative integer.");
+                }
+                return new LoxArray((int)(double)length, threadSafe);
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        globals.define("map", new LoxCallable()
+        {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments)
+            {
+                return new LoxMap(threadSafe);
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        LoxCallable iterator = new LoxCallable()
+        {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments)
+            {
+                return LoxIterator.of(interpreter, arguments.get(0));
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        };
+        globals.define("iterator", iterator);
+        // what for-in loops call, under a name programs can't declare or assign
+        globals.define("$iterator", iterator);
+
+        globals.define("range", new LoxCallable()
+        {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments)
+            {
+                if (!(arguments.get(0) instanceof Double) || !(arguments.get(1) instanceof Double))
+                {
+                    throw new NativeError("Range bounds must be numbers.");
+                }
+                return LoxIterator.range((double)arguments.get(0), (double)arguments.get(1));
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        globals.define("lines", new LoxCallable()
+        {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments)
+            {
+                if (!(arguments.get(0) instanceof String))
+                {
+                    throw new NativeError("File path must be a string.");
+                }
+                return LoxIterator.lines((String)arguments.get(0));
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        globals.define("vector", new LoxCallable()
+        {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments)
+            {
+                return LoxVector.EMPTY;
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        globals.define("persistentMap", new LoxCallable()
+        {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments)
+            {
+                return LoxPersistentMap.EMPTY;
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        globals.define("atomic", new LoxCallable()
+        {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments)
+            {
+                return new LoxAtomic(arguments.get(0));
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        globals.define("counter", new LoxCallable()
+        {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments)
+            {
+                return new LoxCounter();
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        globals.define("compareAndSet", new LoxCallable()
+        {
+            @Override
+            public int arity() {
+                return 4;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments)
+            {
+                Object instance = arguments.get(0);
+                if (!(instance instanceof LoxInstance) || instance instanceof NativeInstance
+                        || !(arguments.get(1) instanceof String))
+                {
+                    throw new NativeError("compareAndSet takes an instance and a field name.");
+                }
+                return ((LoxInstance)instance).compareAndSet((String)arguments.get(1), arguments.get(2), arguments.get(3));
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        globals.define("parallelRange", new LoxCallable()
+        {
+            @Override
+            public int arity() {
+                return 3;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments)
+            {
+                return parallel(interpreter, arguments, null);
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        globals.define("parallelReduce", new LoxCallable()
+        {
+            @Override
+            public int arity() {
+                return 4;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments)
+            {
+                Object combine = arguments.get(3);
+                if (!(combine instanceof LoxCallable) || ((LoxCallable)combine).arity() != 2)
+                {
+                    throw new NativeError("Can only reduce with functions of two parameters.");
+                }
+                return parallel(interpreter, arguments, (LoxCallable)combine);
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+    }
+
+    /**
+     * Runs the function of a parallelRange or parallelReduce call over its range
+     * @param interpreter The calling context
+     * @param arguments The start, end and function arguments
+     * @param combine The function combining results, null to discard them
+     * @return the combined results
+     */
+    private Object parallel(Interpreter interpreter, List<Object> arguments, LoxCallable combine)
+    {
+        Object start = arguments.get(0);
+        Object end = arguments.get(1);
+        Object function = arguments.get(2);
+
+        if (!(start instanceof Double) || !(end instanceof Double)
+                || (double)start != Math.floor((double)start) || (double)end != Math.floor((double)end))
+        {
+            throw new NativeError("Range bounds must be integers.");
+        }
+        if (!(function instanceof LoxCallable) || ((LoxCallable)function).arity() != 1)
+        {
+            throw new NativeError("Can only run functions of one parameter over a range.");
+        }
+        if (hasDeferredBodies())
+        {
+            // materializing writes the resolution tables, which workers read without locking
+            materializeAll();
+        }
+        return ParallelRange.run(interpreter, (LoxCallable)function, combine, (long)(double)start, (long)(double)end);
+    }
+
+    /**
+     * Creates a context sharing the globals, the resolution of the program and every object with
+     * this one, but with its own environment chain so it can execute functions on another thread.
+     * The resolution tables are concurrent maps, the memoized caches are locked when used
+     * @param parent The interpreter forked
+     */
+    private Interpreter(Interpreter parent)
+    {
+        out = parent.out;
+        reporter = parent.reporter;
+        threadSafe = parent.threadSafe;
+        globals = parent.globals;
+        environment = globals;
+        locals = parent.locals;
+        callSites = parent.callSites;
+        methodSites = parent.methodSites;
+        hierarchy = parent.hierarchy;
+        pureFunctions = parent.pureFunctions;
+        pureDeclarations = parent.pureDeclarations;
+        revokedDeclarations = parent.revokedDeclarations;
+        generators = parent.generators;
+        outerAssignments = parent.outerAssignments;
+        parallel = parent.parallel;
+        memoized = parent.memoized;
+        actorMetrics = parent.actorMetrics;
+        deferredBodies = parent.deferredBodies;
+        materializedCount = parent.materializedCount;
+        deferredResolver = parent.deferredResolver;
+        deferredInliner = parent.deferredInliner;
+        scanner = parent.scanner;
+    }
+
+    /**
+     * @return a context for running a function on another thread
+     */
+    Interpreter fork()
+    {
+        return new Interpreter(this);
+    }
+
+    /**
+     * @return a context for running a piece of a parallel range on another thread
+     */
+    Interpreter parallelContext()
+    {
+        Interpreter context = new Interpreter(this);
+        context.parallel = true;
+        return context;
+    }
+
+    /**
+     * @param handoff Where the yield statements of the body hand their values over
+     * @return a context for running the body of a generator on another thread
+     */
+    Interpreter generatorContext(LoxGenerator.Handoff handoff)
+    {
+        Interpreter context = new Interpreter(this);
+        context.generator = handoff;
+        return context;
+    }
+
+    /**
+     * Gets the arena interpreter of this context for an arena program, a forked context gets its own
+     * so its frames are not shared with the thread it was forked from
+     * @param program The interpreter that created the arena function being called
+     * @return the arena interpreter to call the function with
+     */
+    ArenaInterpreter arenaContext(ArenaInterpreter program)
+    {
+        if (program.host == this)
+        {
+            return program;
+        }
+        if (arenaContext == null || arenaContext.arena != program.arena)
+        {
+            arenaContext = new ArenaInterpreter(this, program.arena);
+        }
+        return arenaContext;
     }
     private boolean isRepl;
 
-    void interpret(List<Stmt> statements, boolean isRepl)
+    void interpret(List<Stmt> statements, boolean isRepl)
+    {
+        this.isRepl = isRepl;
+        try
+        {
+            for (Stmt statement : statements)
+            {
+                execute(statement);
+            }
+        }
+        catch (RuntimeError error)
+        {
+            reporter.runtimeError(error);
+        }
+    }
+
+    /**
+     * Runs a compiled program with the globals of this interpreter
+     * @param program The program, it may be running in other interpreters at the same time
+     * @return the status of the exit statement that ended the program, 0 if it ran to its end
+     */
+    int run(Program program)
     {
-        this.isRepl = isRepl;
         try
         {
-            for (Stmt statement : statements)
-            {
-                execute(statement);
-            }
+            new ArenaInterpreter(this, program.arena).interpret(program.statements);
+            return 0;
         }
-        catch (RuntimeError error)
+        catch (Exit exit)
         {
-            Lox.runtimeError(error);
+            return exit.status;
         }
     }
 
-    private String stringify(Object object)
+    static String stringify(Object object)
     {
         if (object == null)
             return "nil";
@@ -143,11 +727,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
 
         LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "this");
 
-        LoxFunction method = superclass.findMethod(expr.method.lexeme);
+        LoxFunction method = superclass.findMethod(expr.method.lexeme());
 
         if (method == null)
         {
-            throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
+            throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme() + "'.");
         }
         return method.bind(object);
     }
@@ -190,7 +774,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
         Integer distance = locals.get(expr);
         if (distance != null)
         {
-            return environment.getAt(distance, name.lexeme);
+            return environment.getAt(distance, name.lexeme());
         }
         else
         {
@@ -245,14 +829,65 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     @Override
     public Object visitCallExpr(Expr.Call expr)
     {
+        CallSite site = callSites.get(expr);
+        if (site != null)
+        {
+            return callGlobal(expr, site);
+        }
+
         Object callee = evaluate(expr.callee);
+        List<Object> arguments = evaluateArguments(expr);
+        return call(expr, checkCallable(expr, callee, arguments.size()), arguments);
+    }
+
+    /**
+     * Calls a function through its global name. The callee found by the first call is bound to the
+     * call site and reused by the next calls, skipping the global lookup and the callable and arity
+     * checks, until a global holding a callable is reassigned or redeclared
+     * @param expr The call expression, its callee is a global variable
+     * @param site The call site of the expression
+     * @return the value of the call
+     */
+    private Object callGlobal(Expr.Call expr, CallSite site)
+    {
+        int version = globals.version();
+        CallSite.Binding binding = site.binding;
+
+        if (binding == null || binding.version != version)
+        {
+            Object callee = evaluate(expr.callee);
+
+            if (!site.inlines(callee))
+            {
+                List<Object> arguments = evaluateArguments(expr);
+                LoxCallable function = checkCallable(expr, callee, arguments.size());
+                site.binding = new CallSite.Binding(function, version, false);
+                return call(expr, function, arguments);
+            }
+
+            binding = new CallSite.Binding((LoxCallable)callee, version, true);
+            site.binding = binding;
+        }
 
+        if (binding.inline)
+        {
+            return evaluateInline((LoxFunction)binding.function, expr, site.inlineBody);
+        }
+        return call(expr, binding.function, evaluateArguments(expr));
+    }
+
+    private List<Object> evaluateArguments(Expr.Call expr)
+    {
         List<Object> arguments = new ArrayList<>();
         for (Expr argument : expr.arguments)
         {
             arguments.add(evaluate(argument));
         }
+        return arguments;
+    }
 
+    private LoxCallable checkCallable(Expr.Call expr, Object callee, int argumentCount)
+    {
         if (!(callee instanceof LoxCallable))
         {
             throw new RuntimeError(expr.paren,"Object not callable;");
@@ -260,11 +895,55 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
 
         LoxCallable function = (LoxCallable)callee;
 
-        if (arguments.size() != function.arity())
+        if (argumentCount != function.arity())
+        {
+            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + argumentCount + ".");
+        }
+        return function;
+    }
+
+    private Object call(Expr.Call expr, LoxCallable function, List<Object> arguments)
+    {
+        try
+        {
+            return function.call(this, arguments);
+        }
+        catch (NativeError error)
+        {
+            throw new RuntimeError(expr.paren, error.getMessage());
+        }
+    }
+
+    /**
+     * Evaluates an inlined call, arguments are bound in a new environment on the function's closure
+     * and the returned expression is evaluated directly, without building the argument list
+     * or unwinding a Return
+     * @param function The function held by the callee, already checked to be the inlined declaration
+     * @param expr The call expression
+     * @param body The returned expression of the function
+     * @return the value of the call
+     */
+    private Object evaluateInline(LoxFunction function, Expr.Call expr, Expr body)
+    {
+        Environment environment = new Environment(function.closure);
+        List<Token> params = function.declaration.params;
+
+        for (int i = 0; i < params.size(); i++)
+        {
+            environment.define(params.get(i).lexeme(), evaluate(expr.arguments.get(i)));
+        }
+
+        Environment previous = this.environment;
+
+        try
+        {
+            this.environment = environment;
+            return evaluate(body);
+        }
+        finally
         {
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+            this.environment = previous;
         }
-        return function.call(this, arguments);
     }
 
     /**
@@ -280,6 +959,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
 
         if (object instanceof LoxInstance)
         {
+            MethodSite site = methodSites.get(expr);
+            if (site != null)
+            {
+                return ((LoxInstance) object).get(expr.name, site);
+            }
             return ((LoxInstance) object).get(expr.name);
         }
 
@@ -299,6 +983,27 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     }
 
 
+    /**
+     * Evaluates an expression moved out of a loop or shared between its occurrences,
+     * the first evaluation stores the value in the temporary declared by the Optimizer
+     * @param expr The hoisted expression
+     * @return the value of the expression
+     */
+    @Override
+    public Object visitHoistedExpr(Expr.Hoisted expr)
+    {
+        int distance = locals.get(expr);
+        Object value = environment.getAt(distance, expr.name.lexeme());
+
+        if (value instanceof Environment.Undefined)
+        {
+            value = evaluate(expr.expression);
+            environment.assignAt(distance, expr.name, value);
+        }
+
+        return value;
+    }
+
     private Object evaluate(Expr expr)
     {
         return expr.accept(this);
@@ -314,6 +1019,349 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
         locals.put(expr, depth);
     }
 
+    /**
+     * Checks if the resolver left an expression to be looked up in the globals
+     * @param expr The variable, assignment or this expression
+     * @return Indicator of whether the expression refers to a global
+     */
+    boolean isGlobal(Expr expr)
+    {
+        return !locals.containsKey(expr);
+    }
+
+    /**
+     * Gets the scope distance the resolver found for a variable, assignment, this or super expression
+     * @param expr The expression
+     * @return the distance, null for a global
+     */
+    Integer depth(Expr expr)
+    {
+        return locals.get(expr);
+    }
+
+    /**
+     * Checks if a value is a function the resolver found to be free of side effects
+     * @param function The value
+     * @return Indicator of whether the function can be memoized
+     */
+    boolean isPure(Object function)
+    {
+        if (function instanceof ArenaFunction)
+        {
+            return ((ArenaFunction)function).isPure();
+        }
+        return function instanceof LoxFunction && isPure(((LoxFunction)function).declaration);
+    }
+
+    boolean isPure(Stmt.Function declaration)
+    {
+        return pureFunctions.contains(declaration);
+    }
+
+    /**
+     * Gives a property access an inline cache for its method lookup
+     * @param expr The property access
+     * @param method The only method declared with the property name, null to remove the cache
+     */
+    void devirtualize(Expr.Get expr, Stmt.Function method)
+    {
+        if (method == null)
+        {
+            methodSites.remove(expr);
+        }
+        else
+        {
+            methodSites.put(expr, new MethodSite(method));
+        }
+    }
+
+    /**
+     * Takes the function bodies a parser deferred, they are resolved and analyzed with the given passes
+     * when first called. Must be done before the program declaring the functions is resolved
+     * @param bodies The deferred bodies by declaration
+     * @param resolver The resolver of the program
+     * @param inliner The inliner of the program
+     */
+    void defer(Map<Stmt.Function, LazyBody> bodies, Resolver resolver, Inliner inliner)
+    {
+        deferredBodies.putAll(bodies);
+        deferredResolver = resolver;
+        deferredInliner = inliner;
+    }
+
+    /**
+     * @param function A function declaration
+     * @return its body if it was deferred and not materialized yet, null otherwise
+     */
+    LazyBody deferredBody(Stmt.Function function)
+    {
+        LazyBody lazy = function == null ? null : deferredBodies.get(function);
+        return lazy == null || lazy.started() ? null : lazy;
+    }
+
+    /**
+     * @return Indicator of whether some deferred function bodies were not materialized yet
+     */
+    private boolean hasDeferredBodies()
+    {
+        return materializedCount.get() < deferredBodies.size();
+    }
+
+    /**
+     * Parses, optimizes and resolves a deferred function body and runs the analysis passes over it
+     * the first time it is asked for. The declaration is left as it is, the statements are published
+     * in the lazy body once every pass ran over them
+     * @param function The declaration
+     * @param lazy Its deferred body
+     * @return the statements of the body
+     * @throws RuntimeError if the body has syntax or resolution errors, they were reported first
+     */
+    List<Stmt> materialize(Stmt.Function function, LazyBody lazy)
+    {
+        List<Stmt> body = lazy.body();
+        if (body != null)
+        {
+            return body;
+        }
+
+        // the passes share the resolver and the resolution tables, tasks materialize one body at a time
+        synchronized (deferredBodies)
+        {
+            body = lazy.body();
+            if (body != null)
+            {
+                return body;
+            }
+            if (!lazy.started())
+            {
+                lazy.start();
+                body = lazy.parse(reporter);
+                if (!reporter.hadError())
+                {
+                    List<Stmt> optimized = new Optimizer()
+                            .optimize(Collections.singletonList(new Stmt.Function(function.name, function.params, body)));
+                    body = ((Stmt.Function)optimized.get(0)).body;
+                    deferredResolver.resolveBody(function, body);
+                    deferredResolver.markPureFunctions();
+                }
+                if (!reporter.hadError())
+                {
+                    deferredInliner.inlineCalls(body);
+                    hierarchy.analyze(body);
+                    lazy.materialized(body);
+                    materializedCount.incrementAndGet();
+                    return body;
+                }
+            }
+        }
+        throw new RuntimeError(function.name, "Function '" + function.name.lexeme() + "' has errors.");
+    }
+
+    /**
+     * Materializes every deferred function body
+     */
+    void materializeAll()
+    {
+        for (Map.Entry<Stmt.Function, LazyBody> entry : deferredBodies.entrySet())
+        {
+            materialize(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Records a function the resolver found to be free of side effects, allowing it to be memoized
+     * @param function The function declaration
+     */
+    void markPure(Stmt.Function function)
+    {
+        pureFunctions.add(function);
+    }
+
+    /**
+     * Records the arena declaration a pure function was encoded to
+     * @param function The function declaration
+     * @param declaration The declaration node
+     */
+    void encodedPure(Stmt.Function function, int declaration)
+    {
+        pureDeclarations.put(function, declaration);
+    }
+
+    /**
+     * Withdraws the pure mark of a function after a statement resolved later assigned or redeclared a
+     * global it reads. Its memoized instances drop their caches and call the function directly from now on
+     * @param function The function declaration
+     */
+    void revokePure(Stmt.Function function)
+    {
+        pureFunctions.remove(function);
+        Integer declaration = pureDeclarations.remove(function);
+        if (declaration != null)
+        {
+            revokedDeclarations.add(declaration);
+        }
+
+        synchronized (memoized)
+        {
+            Iterator<LoxFunction> functions = memoized.iterator();
+            while (functions.hasNext())
+            {
+                LoxFunction memo = functions.next();
+                if (memo instanceof ArenaFunction ? revokedDeclarations.contains(((ArenaFunction)memo).declaration)
+                        : memo.declaration == function)
+                {
+                    memo.forget();
+                    functions.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param declaration An arena declaration node encoded as pure
+     * @return Indicator of whether its pure mark was revoked since
+     */
+    boolean isRevoked(int declaration)
+    {
+        return revokedDeclarations.contains(declaration);
+    }
+
+    /**
+     * Records a function containing a yield statement, calling it returns a generator
+     * @param function The function declaration
+     */
+    void markGenerator(Stmt.Function function)
+    {
+        generators.add(function);
+    }
+
+    /**
+     * @param function A function declaration, a deferred body must be materialized first
+     * @return Indicator of whether the function contains a yield statement
+     */
+    boolean isGenerator(Stmt.Function function)
+    {
+        return !generators.isEmpty() && generators.contains(function);
+    }
+
+    /**
+     * Hands a value over to the iteration of the generator whose body this context runs
+     * @param value The yielded value
+     */
+    void yieldValue(Object value)
+    {
+        generator.yieldValue(value);
+    }
+
+    /**
+     * Prints the hit and miss counts of the memoized functions
+     * @param out The stream to print to
+     */
+    void printStats(PrintStream out)
+    {
+        for (LoxFunction function : memoized)
+        {
+            FunctionCache cache = function.cache();
+            out.println("[stats] memoize " + function + ": " + cache.hits + " hits, " + cache.misses + " misses, " + cache.size() + " cached");
+        }
+        if (!deferredBodies.isEmpty())
+        {
+            out.println("[stats] lazy: " + materializedCount.get() + " of " + deferredBodies.size()
+                    + " function bodies parsed");
+        }
+        if (actorMetrics.actors.sum() > 0)
+        {
+            out.println("[stats] actors: " + actorMetrics.actors.sum() + " actors, " + actorMetrics.messages.sum()
+                    + " messages (" + actorMetrics.failures.sum() + " failed), "
+                    + String.format("%.0f", actorMetrics.throughput()) + " messages/s of processing time");
+        }
+    }
+
+    /**
+     * Drops the resolution data of top level statements that finished executing so their trees can be
+     * collected. Function and class bodies are kept, they can still be called
+     * @param statements The executed statements
+     */
+    void release(List<Stmt> statements)
+    {
+        new AstWalker()
+        {
+            @Override
+            void walk(Expr expr)
+            {
+                if (expr != null)
+                {
+                    locals.remove(expr);
+                    callSites.remove(expr);
+                    outerAssignments.remove(expr);
+                    if (methodSites.remove(expr) != null)
+                    {
+                        hierarchy.forget((Expr.Get)expr);
+                    }
+                }
+                super.walk(expr);
+            }
+
+            @Override
+            public Void visitFunctionStmt(Stmt.Function stmt)
+            {
+                return null;
+            }
+
+            @Override
+            public Void visitClassStmt(Stmt.Class stmt)
+            {
+                return null;
+            }
+        }.walk(statements);
+    }
+
+    /**
+     * Drops the resolution data of every tree, once a program is encoded in an arena its trees are
+     * not executed by this interpreter
+     */
+    void clearResolution()
+    {
+        locals.clear();
+        callSites.clear();
+        outerAssignments.clear();
+        methodSites.clear();
+        pureFunctions.clear();
+    }
+
+    /**
+     * Records an assignment to a local declared outside the function assigning it
+     * @param expr The assignment
+     */
+    void outerAssignment(Expr.Assign expr)
+    {
+        outerAssignments.add(expr);
+    }
+
+    boolean isOuterAssignment(Expr.Assign expr)
+    {
+        return outerAssignments.contains(expr);
+    }
+
+    /**
+     * Gives a call through a global name a call site, so its callee can be bound after the first call
+     * @param expr The call expression, its callee resolved to a global
+     */
+    void globalCall(Expr.Call expr)
+    {
+        callSites.put(expr, new CallSite());
+    }
+
+    /**
+     * Marks a call to be evaluated inline when its callee is the given function
+     * @param expr The call expression, its callee resolved to a global
+     * @param function The small function found by the Inliner
+     */
+    void inline(Expr.Call expr, Stmt.Function function)
+    {
+        callSites.get(expr).inline(function);
+    }
+
     void executeBlock(List<Stmt> statements, Environment environment)
     {
         Environment previous = this.environment;
@@ -360,7 +1408,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
             }
         }
 
-        environment.define(stmt.name.lexeme, null);
+        environment.define(stmt.name.lexeme(), null);
 
         if (stmt.superclass != null)
         {
@@ -372,11 +1420,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
 
         for (Stmt.Function method : stmt.methods)
         {
-            LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
-            methods.put(method.name.lexeme, function);
+            LoxFunction function = new LoxFunction(method, environment, method.name.lexeme().equals("init"));
+            methods.put(method.name.lexeme(), function);
         }
 
-        LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass)superclass, methods);
+        LoxClass klass = new LoxClass(stmt.name.lexeme(), (LoxClass)superclass, methods);
 
         if (stmt.superclass != null)
         {
@@ -393,7 +1441,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
         Object value = evaluate(stmt.expression);
         if (isRepl)
         {
-            System.out.println(stringify(value));
+            out.println(stringify(value));
         }
         return null;
     }
@@ -401,8 +1449,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt)
     {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
+        LoxFunction function = new LoxFunction(stmt, environment, false,
+                deferredBodies.isEmpty() ? null : deferredBodies.get(stmt));
+        environment.define(stmt.name.lexeme(), function);
         return null;
     }
 
@@ -425,7 +1474,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     public Void visitPrintStmt(Stmt.Print stmt)
     {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        out.println(stringify(value));
         return null;
     }
 
@@ -455,7 +1504,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
             value = new Environment.Undefined();
         }
 
-        environment.define(stmt.name.lexeme, value);
+        environment.define(stmt.name.lexeme(), value);
         return null;
     }
 
@@ -471,20 +1520,43 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     }
 
     @Override
-    public Void visitExitStmt(Stmt.Exit stmt)
+    public Void visitYieldStmt(Stmt.Yield stmt)
+    {
+        yieldValue(stmt.value == null ? null : evaluate(stmt.value));
+        return null;
+    }
+
+    @Override
+    public Void visitCloseStmt(Stmt.Close stmt)
     {
         try
         {
-            System.exit((int)(double)evaluate((Expr)stmt.value));
+            execute(stmt.body);
         }
-        catch (Exception e)
+        catch (RuntimeException | Error e)
         {
-            System.exit(0);
+            // a return, an exit or an error leaves the loop before the end of its iterator
+            LoxIterator.closeIterator(this, evaluate(stmt.iterator));
+            throw e;
         }
-
         return null;
     }
 
+    @Override
+    public Void visitExitStmt(Stmt.Exit stmt)
+    {
+        throw new Exit(exitStatus(evaluate((Expr)stmt.value)));
+    }
+
+    /**
+     * @param value The value of an exit statement
+     * @return the exit status, 0 when the value isn't a number
+     */
+    static int exitStatus(Object value)
+    {
+        return value instanceof Double ? (int)(double)value : 0;
+    }
+
     @Override
     public Object visitAssignExpr(Expr.Assign expr)
     {
@@ -492,6 +1564,10 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
 
         Integer distance = locals.get(expr);
 
+        if (parallel && (distance == null || outerAssignments.contains(expr)))
+        {
+            throw new RuntimeError(expr.name, PARALLEL_ASSIGNMENT);
+        }
         if (distance != null)
         {
             environment.assignAt(distance, expr.name, value);
@@ -504,7 +1580,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
         return value;
     }
 
-    private boolean isTruthy(Object object)
+    static boolean isTruthy(Object object)
     {
         if (object == null)
         {
@@ -520,7 +1596,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
         }
     }
 
-    private boolean isEqual(Object left, Object right)
+    static boolean isEqual(Object left, Object right)
     {
         if (left == null && right == null)
             return true;
@@ -0,0 +1,117 @@
+package jLox;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Body of a top level function the parser only skipped over, it is parsed and resolved the first
+ * time the function is called. Holds either the tokens of the body, or its statements when the
+ * body was parsed up front to report syntax errors before execution. The declaration keeps its
+ * empty body, the resolved statements are kept here
+ */
+class LazyBody
+{
+    private List<Token> tokens;
+    private List<Stmt> statements;
+    // set once the resolution of the body started, from then on it no longer counts as deferred
+    private boolean started = false;
+    // the resolved statements, null until the body is materialized
+    private volatile List<Stmt> body = null;
+
+    // globals the body may assign, a function calling them through these names is not pure
+    final Set<String> assignedNames = new HashSet<>();
+
+    private LazyBody(List<Token> tokens, List<Stmt> statements)
+    {
+        this.tokens = tokens;
+        this.statements = statements;
+    }
+
+    /**
+     * @param tokens The tokens between the braces of the body, ended by an EOF token
+     * @return a body parsed on its first call
+     */
+    static LazyBody skipped(List<Token> tokens)
+    {
+        LazyBody body = new LazyBody(tokens, null);
+
+        for (int i = 1; i < tokens.size(); i++)
+        {
+            Token token = tokens.get(i - 1);
+            if (token.type == TokenType.IDENTIFIER && tokens.get(i).type == TokenType.EQUAL
+                    && (i < 2 || (tokens.get(i - 2).type != TokenType.DOT && tokens.get(i - 2).type != TokenType.VAR)))
+            {
+                body.assignedNames.add(token.lexeme());
+            }
+        }
+        return body;
+    }
+
+    /**
+     * @param statements The parsed statements of the body
+     * @return a body resolved on its first call
+     */
+    static LazyBody parsed(List<Stmt> statements)
+    {
+        LazyBody body = new LazyBody(null, statements);
+
+        new AstWalker()
+        {
+            @Override
+            public Void visitAssignExpr(Expr.Assign expr)
+            {
+                body.assignedNames.add(expr.name.lexeme());
+                return super.visitAssignExpr(expr);
+            }
+        }.walk(statements);
+        return body;
+    }
+
+    /**
+     * Parses the body
+     * @param reporter Receives the syntax errors
+     * @return the statements of the body
+     */
+    List<Stmt> parse(ErrorReporter reporter)
+    {
+        if (statements == null)
+        {
+            statements = new Parser(tokens, reporter).parse();
+            tokens = null;
+        }
+        return statements;
+    }
+
+    /**
+     * @return the resolved statements of the body, null until it is materialized
+     */
+    List<Stmt> body()
+    {
+        return body;
+    }
+
+    /**
+     * @return Indicator of whether the resolution of the body started
+     */
+    boolean started()
+    {
+        return started;
+    }
+
+    void start()
+    {
+        started = true;
+    }
+
+    /**
+     * Publishes the resolved statements, the calls running from then on execute them
+     * @param statements The statements, after every analysis pass ran over them
+     */
+    void materialized(List<Stmt> statements)
+    {
+        tokens = null;
+        this.statements = null;
+        body = statements;
+    }
+}
@@ -4,30 +4,107 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class Lox 
 {
-	private static final Interpreter interpreter = new Interpreter();
+	private static final ErrorReporter reporter = new ErrorReporter(System.err);
+	private static Interpreter interpreter = new Interpreter(System.out, reporter);
 
-	static boolean hadError = false;
-	static boolean hadRuntimeError = false;
+	private static boolean printStats = false;
+	private static boolean stream = false;
+	private static boolean threaded = false;
+	private static boolean lazy = false;
+	private static boolean strict = false;
+	private static boolean threadSafe = false;
+	private static boolean arena = false;
+	private static ArenaBuilder arenaBuilder = null;
+	private static ArenaInterpreter arenaInterpreter = null;
+	private static ArenaCache cache = null;
+	private static String cacheKey = null;
+	private static long frontEndNanos = 0;
+	// kept for the whole REPL session so the purity of functions covers the globals every line declares
+	private static Resolver replResolver = null;
+
+	private Lox()
+	{
+	}
 	
 	public static void main(String[] args) throws IOException
 	{
-		if (args.length > 1)
+		List<String> scripts = new ArrayList<>();
+
+		for (String arg : args)
+		{
+			if (arg.equals("--stats"))
+			{
+				printStats = true;
+			}
+			else if (arg.equals("--stream"))
+			{
+				stream = true;
+			}
+			else if (arg.equals("--threaded"))
+			{
+				threaded = true;
+			}
+			else if (arg.equals("--lazy"))
+			{
+				lazy = true;
+			}
+			else if (arg.equals("--strict"))
+			{
+				strict = true;
+			}
+			else if (arg.equals("--threadsafe"))
+			{
+				threadSafe = true;
+			}
+			else if (arg.equals("--arena"))
+			{
+				arena = true;
+			}
+			else if (arg.equals("--cache"))
+			{
+				cache = new ArenaCache(ArenaCache.defaultDirectory());
+			}
+			else if (arg.startsWith("--"))
+			{
+				usage();
+			}
+			else
+			{
+				scripts.add(arg);
+			}
+		}
+
+		if (scripts.size() > 1 || (cache != null && stream) || (lazy && (arena || cache != null)))
+		{
+			usage();
+		}
+
+		interpreter = new Interpreter(System.out, reporter, threadSafe);
+		if (arena)
 		{
-			System.out.println("Usage: jlox [script]");
-			System.exit(69);
+			useArena(new Arena());
 		}
-		else if (args.length == 1)
+
+		if (scripts.size() == 1)
 		{
 			try
             {
-                runFile(args[0]);
+                runFile(scripts.get(0));
             }
+			catch (Exit exit)
+			{
+				System.exit(exit.status);
+			}
 			catch (Exception e)
             {
                 System.out.println("Problem loading file.");
@@ -36,22 +113,120 @@ public class Lox
 		}
 		else
 		{
-			runPrompt();
+			try
+			{
+				runPrompt();
+			}
+			catch (Exit exit)
+			{
+				System.exit(exit.status);
+			}
 		}
 
 	}
+
+	private static void usage()
+	{
+		System.out.println("Usage: jlox [--stats] [--stream] [--threaded] [--lazy] [--strict] [--threadsafe] [--arena] [--cache] [script]");
+		System.exit(69);
+	}
 	
+	private static void useArena(Arena arena)
+	{
+		arenaBuilder = new ArenaBuilder(interpreter, arena);
+		arenaInterpreter = new ArenaInterpreter(interpreter, arena);
+	}
+
 	public static void runFile(String path) throws IOException
 	{
-		byte[] bytes = Files.readAllBytes(Paths.get(path));
-		run(new String(bytes, Charset.defaultCharset()), false);
+		if (cache != null && runCached(Paths.get(path)))
+		{
+			return;
+		}
+
+		Scanner scanner = new Scanner(readSource(Paths.get(path)), reporter);
+		TokenSource tokens = threaded ? TokenRing.scan(scanner, TokenRing.DEFAULT_CAPACITY) : scanner;
+
+		if (stream)
+			runStreaming(tokens);
+		else
+			run(tokens, false);
+
+		if (printStats)
+		{
+			if (!stream)
+			{
+				int count = scanner.tokenCount();
+				System.err.printf("[stats] front end: %d tokens in %.1f ms, %.0f tokens/s%n", count,
+						frontEndNanos / 1e6, count / (frontEndNanos / 1e9));
+			}
+			if (arenaInterpreter != null)
+			{
+				Arena arena = arenaInterpreter.arena;
+				System.err.printf("[stats] arena: %d nodes, %d constants, %d KB%n", arena.size,
+						arena.constantCount, arena.footprint() / 1024);
+			}
+			interpreter.printStats(System.err);
+		}
 		
-		if (hadError)
+		if (reporter.hadError())
 			System.exit(65);
-		if (hadRuntimeError)
+		if (reporter.hadRuntimeError())
 			System.exit(70);
 	}
 	
+	/**
+	 * Runs a script from the cache when it holds the resolved program for the script's content,
+	 * otherwise sets up the arena so the program is stored in the cache once resolved
+	 * @param path The script path
+	 * @return Indicator of whether the script ran from the cache
+	 * @throws IOException if the file can't be read
+	 */
+	private static boolean runCached(Path path) throws IOException
+	{
+		cacheKey = ArenaCache.key(Files.readAllBytes(path), Charset.defaultCharset());
+		Program program = cache.load(cacheKey);
+
+		if (program == null)
+		{
+			useArena(new Arena());
+			return false;
+		}
+
+		useArena(program.arena);
+		arenaInterpreter.interpret(program.statements);
+
+		if (printStats)
+		{
+			System.err.println("[stats] cache hit " + cacheKey);
+			interpreter.printStats(System.err);
+		}
+		if (reporter.hadRuntimeError())
+			System.exit(70);
+		return true;
+	}
+
+	/**
+	 * Gets the source of a script. Files in an ASCII compatible charset are memory mapped and
+	 * scanned in place, other charsets are read and decoded into a string
+	 * @param path The script path
+	 * @return the source text
+	 * @throws IOException if the file can't be read
+	 */
+	private static CharSequence readSource(Path path) throws IOException
+	{
+		Charset charset = Charset.defaultCharset();
+
+		if (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+				|| charset.equals(StandardCharsets.ISO_8859_1))
+		{
+			return ByteSource.map(path, charset);
+		}
+
+		byte[] bytes = Files.readAllBytes(path);
+		return new String(bytes, charset);
+	}
+
 	public static void runPrompt() throws IOException
 	{
 		InputStreamReader input = new InputStreamReader(System.in);
@@ -64,8 +239,11 @@ public class Lox
 			if (line == null)
 				break;
 			run(line, true);
-			hadError = false;
+			reporter.reset();
 		}
+
+		if (printStats)
+			interpreter.printStats(System.err);
 	}
 
 	/**
@@ -73,57 +251,136 @@ public class Lox
 	 * @param source The source code
 	 * @param isRepl Indicates if code is run un REPL mode
 	 */
-	public static void run(String source, Boolean isRepl)
+	public static void run(CharSequence source, Boolean isRepl)
 	{
-		Scanner scanner = new Scanner(source);
-		List<Token> tokens = scanner.scanTokens();
-		
-		Parser parser = new Parser(tokens);
+		run(new Scanner(source, reporter), isRepl);
+	}
+
+	private static void run(TokenSource tokens, boolean isRepl)
+	{
+		Parser parser = new Parser(tokens, reporter);
+		if (lazy && !isRepl)
+		{
+			parser.deferFunctionBodies(strict);
+		}
+		long start = System.nanoTime();
 		List<Stmt> statements = parser.parse();
+		frontEndNanos = System.nanoTime() - start;
 
-		if (hadError)
+		if (reporter.hadError())
 		{
 			return;
 		}
 
-		Resolver resolver = new Resolver(interpreter);
+		Optimizer optimizer = new Optimizer();
+		statements = optimizer.optimize(statements);
+
+		if (isRepl && replResolver == null)
+		{
+			replResolver = new Resolver(interpreter);
+		}
+		Resolver resolver = isRepl ? replResolver : new Resolver(interpreter);
+		Inliner inliner = new Inliner(interpreter);
+		if (lazy && !isRepl)
+		{
+			interpreter.defer(parser.takeDeferred(), resolver, inliner);
+		}
 		resolver.resolve(statements);
+		resolver.markPureFunctions();
 
-		if (hadError)
+		if (reporter.hadError())
 		{
 			return;
 		}
 
+		if (arenaInterpreter != null && !isRepl)
+		{
+			runArena(statements);
+			return;
+		}
+
+		inliner.inline(statements);
+		interpreter.hierarchy.analyze(statements);
+
 		interpreter.interpret(statements, isRepl);
 	}
-	
-	static void error(int line, String message)
+
+	/**
+	 * Encodes resolved statements in the arena and executes them there, the trees and their
+	 * resolution data are not needed afterwards
+	 * @param statements The resolved statements
+	 */
+	private static void runArena(List<Stmt> statements)
 	{
-		report(line, "", message);
+		int program = arenaBuilder.encode(statements);
+		interpreter.clearResolution();
+
+		if (cache != null)
+		{
+			cache.store(cacheKey, new Program(arenaInterpreter.arena, program));
+		}
+		arenaInterpreter.interpret(program);
 	}
 	
-	private static void report(int line, String where, String message)
-	{
-		System.err.println("[line " + line + "] error" + where + ": " + message);
-		hadError = true;
-	}
-
-	static void error(Token token, String message)
+	/**
+	 * Runs Lox code one top level declaration at a time. Each declaration is parsed, resolved and
+	 * executed before the next one is parsed, and its tree is released afterwards unless a function
+	 * or class still references it.
+	 * Unlike run, declarations before a syntax or resolution error have already executed when it is
+	 * reported, the rest of the source is still parsed to report the other syntax errors
+	 * @param tokens The tokens of the source code
+	 */
+	static void runStreaming(TokenSource tokens)
 	{
-		if (token.type == TokenType.EOF)
+		Parser parser = new Parser(tokens, reporter);
+		Optimizer optimizer = new Optimizer();
+		Resolver resolver = new Resolver(interpreter);
+		Inliner inliner = new Inliner(interpreter);
+		if (lazy)
 		{
-			report(token.line, " at end", message);
+			parser.deferFunctionBodies(strict);
 		}
-		else
+
+		while (parser.hasNext())
 		{
-			report(token.line, " at '" + token.lexeme + "'", message);
-		}
-	}
+			Stmt statement = parser.parseNext();
 
-	static void runtimeError(RuntimeError error)
-	{
-		System.err.println(error.getMessage() + "\n[line " + error.token.line + ']');
-		hadRuntimeError = true;
+			if (reporter.hadError())
+			{
+				continue;
+			}
+
+			List<Stmt> statements = optimizer.optimize(Collections.singletonList(statement));
+			if (lazy)
+			{
+				interpreter.defer(parser.takeDeferred(), resolver, inliner);
+			}
+			resolver.resolve(statements);
+			resolver.markPureFunctions();
+
+			if (reporter.hadError())
+			{
+				continue;
+			}
+
+			if (arenaInterpreter != null)
+			{
+				runArena(statements);
+			}
+			else
+			{
+				inliner.inline(statements);
+				interpreter.hierarchy.analyze(statements);
+				interpreter.interpret(statements, false);
+			}
+
+			if (reporter.hadRuntimeError())
+			{
+				return;
+			}
+
+			interpreter.release(statements);
+		}
 	}
 
 }
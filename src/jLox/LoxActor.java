@@ -0,0 +1,150 @@
+package jLox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instance whose method calls are messages, created by actor(instance). Calling a method of the actor
+ * puts the call in its mailbox and returns a task to join for the result. The mailbox is processed
+ * one message at a time on a thread started when messages arrive, so the methods never run at the same
+ * time and the instance needs no locking. An idle actor holds no thread, a program can keep many of them
+ */
+class LoxActor extends NativeInstance
+{
+    private static final LoxClass CLASS = nativeClass("Actor");
+
+    // messages processed before the thread is handed back to let other actors run
+    private static final int BATCH = 256;
+
+    private final LoxInstance instance;
+    private final Interpreter context;
+    private final Metrics metrics;
+    private final Queue<FutureTask<Object>> mailbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Message counts and processing time of the actors of an interpreter, printed with --stats
+     */
+    static class Metrics
+    {
+        final LongAdder actors = new LongAdder();
+        final LongAdder messages = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder busyNanos = new LongAdder();
+
+        /**
+         * @return the messages processed per second of processing time, summed over the actors
+         */
+        double throughput()
+        {
+            long nanos = busyNanos.sum();
+            return nanos == 0 ? 0 : messages.sum() / (nanos / 1e9);
+        }
+    }
+
+    /**
+     * @param instance The instance receiving the messages, it shouldn't be used directly afterwards
+     * @param context The forked interpreter context the methods run in
+     * @param metrics The metrics of the interpreter
+     */
+    LoxActor(LoxInstance instance, Interpreter context, Metrics metrics)
+    {
+        super(CLASS);
+        this.instance = instance;
+        this.context = context;
+        this.metrics = metrics;
+        metrics.actors.increment();
+    }
+
+    @Override
+    LoxCallable method(String name)
+    {
+        LoxFunction method = instance.klass.findMethod(name);
+        if (method == null)
+        {
+            return null;
+        }
+
+        LoxFunction bound = method.bind(instance);
+        return method(method.arity(), arguments -> send(bound, arguments));
+    }
+
+    /**
+     * Puts a call in the mailbox, starts processing the mailbox if no thread is doing it
+     * @param method The method bound to the instance
+     * @param arguments The arguments of the call
+     * @return the task completed with the result of the call
+     */
+    private LoxTask send(LoxFunction method, List<Object> arguments)
+    {
+        List<Object> message = new ArrayList<>(arguments);
+        FutureTask<Object> reply = new FutureTask<>(() -> method.call(context, message));
+
+        mailbox.add(reply);
+        schedule();
+        return new LoxTask(reply);
+    }
+
+    private void schedule()
+    {
+        if (scheduled.compareAndSet(false, true))
+        {
+            LoxTask.EXECUTOR.execute(this::process);
+        }
+    }
+
+    /**
+     * Processes a batch of messages, a runtime error fails the task of its message only
+     */
+    private void process()
+    {
+        long start = System.nanoTime();
+        int processed = 0;
+        FutureTask<Object> message;
+
+        while (processed < BATCH && (message = mailbox.poll()) != null)
+        {
+            message.run();
+            processed++;
+
+            if (!isSuccess(message))
+            {
+                metrics.failures.increment();
+            }
+        }
+
+        metrics.messages.add(processed);
+        metrics.busyNanos.add(System.nanoTime() - start);
+
+        // a message sent after the poll above found the flag still set, so it is picked up here
+        scheduled.set(false);
+        if (!mailbox.isEmpty())
+        {
+            schedule();
+        }
+    }
+
+    private static boolean isSuccess(FutureTask<Object> message)
+    {
+        try
+        {
+            message.get();
+            return true;
+        }
+        catch (Exception e)
+        {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<actor " + instance + ">";
+    }
+}
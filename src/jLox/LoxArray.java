@@ -0,0 +1,216 @@
+package jLox;
+
+import java.util.Arrays;
+
+/**
+ * Growable array, created by array(length) with length zeros. Elements are kept unboxed in a double[]
+ * while they are all numbers, the first other value stored moves them to an Object[] for good.
+ * Arrays created in a thread safe interpreter lock themselves in each method and iterator step so tasks
+ * can share them, other arrays are not thread safe
+ */
+class LoxArray extends NativeInstance implements LoxIterable
+{
+    private static final LoxClass CLASS = nativeClass("Array");
+
+    private static final int MINIMUM_CAPACITY = 8;
+
+    // exactly one of the two is used, numbers until a value that isn't a number is stored
+    private double[] numbers;
+    private Object[] objects = null;
+    private int size;
+    private final boolean threadSafe;
+
+    LoxArray(int length)
+    {
+        this(length, false);
+    }
+
+    /**
+     * @param length The number of zeros the array starts with
+     * @param threadSafe Indicator of whether tasks may share the array
+     */
+    LoxArray(int length, boolean threadSafe)
+    {
+        super(CLASS);
+        this.numbers = new double[Math.max(length, MINIMUM_CAPACITY)];
+        this.size = length;
+        this.threadSafe = threadSafe;
+    }
+
+    @Override
+    LoxCallable method(String name)
+    {
+        LoxCallable method;
+        switch (name)
+        {
+            case "get":
+                method = method(1, arguments -> get(index(arguments.get(0))));
+                break;
+            case "set":
+                method = method(2, arguments -> set(index(arguments.get(0)), arguments.get(1)));
+                break;
+            case "push":
+                method = method(1, arguments -> push(arguments.get(0)));
+                break;
+            case "pop":
+                method = method(0, arguments -> pop());
+                break;
+            case "length":
+                method = method(0, arguments -> (double)size);
+                break;
+            default:
+                return null;
+        }
+        return threadSafe ? locked(this, method) : method;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    Object get(int index)
+    {
+        return objects == null ? (Object)numbers[index] : objects[index];
+    }
+
+    Object set(int index, Object value)
+    {
+        if (objects == null)
+        {
+            if (value instanceof Double)
+            {
+                numbers[index] = (double)value;
+                return value;
+            }
+            box();
+        }
+        objects[index] = value;
+        return value;
+    }
+
+    Object push(Object value)
+    {
+        int capacity = objects == null ? numbers.length : objects.length;
+        if (size == capacity)
+        {
+            grow(capacity + (capacity >> 1));
+        }
+        size++;
+        return set(size - 1, value);
+    }
+
+    private Object pop()
+    {
+        if (size == 0)
+        {
+            throw new NativeError("Can't pop from an empty array.");
+        }
+
+        Object value = get(size - 1);
+        if (objects != null)
+        {
+            objects[size - 1] = null;
+        }
+        size--;
+        return value;
+    }
+
+    /**
+     * @return an iterator over the elements, it sees elements pushed while it walks
+     */
+    @Override
+    public LoxIterator iterator()
+    {
+        LoxIterator iterator = new LoxIterator()
+        {
+            private int index = 0;
+
+            @Override
+            boolean hasNext(Interpreter interpreter)
+            {
+                return index < size;
+            }
+
+            @Override
+            Object next(Interpreter interpreter)
+            {
+                // an element popped by another task since hasNext reads as nil
+                return index < size ? LoxArray.this.get(index++) : null;
+            }
+        };
+        return threadSafe ? LoxIterator.locked(this, iterator) : iterator;
+    }
+
+    /**
+     * Checks an index argument
+     * @param index The argument
+     * @return the index as an int
+     */
+    private int index(Object index)
+    {
+        if (!(index instanceof Double) || (double)index != Math.floor((double)index))
+        {
+            throw new NativeError("Array index must be an integer.");
+        }
+        double value = (double)index;
+        if (value < 0 || value >= size)
+        {
+            throw new NativeError("Array index " + Interpreter.stringify(index) + " out of bounds for length " + size + ".");
+        }
+        return (int)value;
+    }
+
+    private void grow(int capacity)
+    {
+        if (objects == null)
+        {
+            numbers = Arrays.copyOf(numbers, capacity);
+        }
+        else
+        {
+            objects = Arrays.copyOf(objects, capacity);
+        }
+    }
+
+    /**
+     * Moves the elements to the Object[] storage
+     */
+    private void box()
+    {
+        objects = new Object[numbers.length];
+        for (int i = 0; i < size; i++)
+        {
+            objects[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    @Override
+    public String toString()
+    {
+        if (threadSafe)
+        {
+            synchronized (this)
+            {
+                return text();
+            }
+        }
+        return text();
+    }
+
+    private String text()
+    {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < size; i++)
+        {
+            if (i > 0)
+            {
+                text.append(", ");
+            }
+            Object element = get(i);
+            text.append(element == this ? "[...]" : Interpreter.stringify(element));
+        }
+        return text.append("]").toString();
+    }
+}
@@ -0,0 +1,83 @@
+package jLox;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Value that tasks update atomically, created by atomic(value). Values are compared the way == compares
+ * them, so compareAndSet(expected, value) succeeds for an equal number even if it is another object
+ */
+class LoxAtomic extends NativeInstance
+{
+    private static final LoxClass CLASS = nativeClass("Atomic");
+
+    private final AtomicReference<Object> value;
+
+    LoxAtomic(Object value)
+    {
+        super(CLASS);
+        this.value = new AtomicReference<>(value);
+    }
+
+    @Override
+    LoxCallable method(String name)
+    {
+        switch (name)
+        {
+            case "get":
+                return method(0, arguments -> value.get());
+            case "set":
+                return method(1, arguments -> {
+                    value.set(arguments.get(0));
+                    return arguments.get(0);
+                });
+            case "add":
+                return method(1, arguments -> add(arguments.get(0)));
+            case "compareAndSet":
+                return method(2, arguments -> compareAndSet(arguments.get(0), arguments.get(1)));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the value after adding
+     */
+    private Object add(Object amount)
+    {
+        if (!(amount instanceof Double))
+        {
+            throw new NativeError("Can only add a number to an atomic.");
+        }
+
+        while (true)
+        {
+            Object current = value.get();
+            if (!(current instanceof Double))
+            {
+                throw new NativeError("Can only add to an atomic holding a number.");
+            }
+
+            Double sum = (double)current + (double)amount;
+            if (value.compareAndSet(current, sum))
+            {
+                return sum;
+            }
+        }
+    }
+
+    private boolean compareAndSet(Object expected, Object update)
+    {
+        while (true)
+        {
+            Object current = value.get();
+            if (!Interpreter.isEqual(current, expected))
+            {
+                return false;
+            }
+            if (value.compareAndSet(current, update))
+            {
+                return true;
+            }
+        }
+    }
+}
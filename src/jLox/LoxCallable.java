@@ -2,7 +2,7 @@ package jLox;
 
 import java.util.List;
 
-public interface LoxCallable
+interface LoxCallable
 {
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
@@ -0,0 +1,69 @@
+package jLox;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+
+/**
+ * Bounded queue passing values between tasks, created by channel(capacity). send blocks while the
+ * channel is full and receive while it is empty, a channel of capacity 0 hands each value over directly
+ */
+class LoxChannel extends NativeInstance
+{
+    private static final LoxClass CLASS = nativeClass("Channel");
+
+    // stands for nil in the queue, which can't hold nulls
+    private static final Object NIL = new Object();
+
+    private final BlockingQueue<Object> queue;
+
+    LoxChannel(int capacity)
+    {
+        super(CLASS);
+        this.queue = capacity == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(capacity);
+    }
+
+    @Override
+    LoxCallable method(String name)
+    {
+        switch (name)
+        {
+            case "send":
+                return method(1, arguments -> send(arguments.get(0)));
+            case "receive":
+                return method(0, arguments -> receive());
+            case "size":
+                return method(0, arguments -> (double)queue.size());
+            default:
+                return null;
+        }
+    }
+
+    private Object send(Object value)
+    {
+        try
+        {
+            queue.put(value == null ? NIL : value);
+            return value;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new NativeError("Interrupted while sending on a channel.");
+        }
+    }
+
+    private Object receive()
+    {
+        try
+        {
+            Object value = queue.take();
+            return value == NIL ? null : value;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new NativeError("Interrupted while receiving from a channel.");
+        }
+    }
+}
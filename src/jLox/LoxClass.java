@@ -3,7 +3,7 @@ package jLox;
 import java.util.List;
 import java.util.Map;
 
-public class LoxClass implements LoxCallable
+class LoxClass implements LoxCallable
 {
     final String name;
     private final Map<String, LoxFunction> methods;
@@ -46,7 +46,7 @@ public class LoxClass implements LoxCallable
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments)
     {
-        LoxInstance instance = new LoxInstance(this);
+        LoxInstance instance = new LoxInstance(this, interpreter.threadSafe);
         LoxFunction initializer = findMethod("init");
         if (initializer != null)
         {
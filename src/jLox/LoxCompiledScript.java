@@ -0,0 +1,165 @@
+package jLox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.script.Bindings;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+/**
+ * A script compiled by the LoxScriptEngine. Every evaluation runs the program in a new interpreter
+ * whose globals start as the global and engine scope bindings of the context; the globals the
+ * script leaves defined are written back to the engine scope
+ */
+public class LoxCompiledScript extends CompiledScript
+{
+    private final LoxScriptEngine engine;
+    private final Program program;
+
+    LoxCompiledScript(LoxScriptEngine engine, Program program)
+    {
+        this.engine = engine;
+        this.program = program;
+    }
+
+    /**
+     * Runs the script, its printed output goes to the writer of the context line by line as it runs and
+     * its runtime error to the error writer
+     * @param context The bindings and writers to use
+     * @return the status of the exit statement that ended the script, 0 if it ran to its end
+     * @throws ScriptException if the script stops on a runtime error or its output can't be written
+     */
+    @Override
+    public Object eval(ScriptContext context) throws ScriptException
+    {
+        StringBuilder errors = new StringBuilder();
+        PrintStream output = new PrintStream(new WriterStream(context.getWriter(), null), true, StandardCharsets.UTF_8);
+        PrintStream errorOutput = new PrintStream(new WriterStream(context.getErrorWriter(), errors), true, StandardCharsets.UTF_8);
+        ErrorReporter reporter = new ErrorReporter(errorOutput);
+        Interpreter interpreter = new Interpreter(output, reporter);
+
+        Set<String> natives = new HashSet<>(interpreter.globals.values().keySet());
+        define(interpreter.globals, context.getBindings(ScriptContext.GLOBAL_SCOPE));
+        define(interpreter.globals, context.getBindings(ScriptContext.ENGINE_SCOPE));
+
+        int status = interpreter.run(program);
+
+        if (output.checkError() || errorOutput.checkError())
+        {
+            throw new ScriptException("Can't write the output of the script.");
+        }
+
+        Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        if (bindings != null)
+        {
+            for (Map.Entry<String, Object> global : interpreter.globals.values().entrySet())
+            {
+                if (!natives.contains(global.getKey()) && !(global.getValue() instanceof Environment.Undefined))
+                {
+                    bindings.put(global.getKey(), global.getValue());
+                }
+            }
+        }
+
+        if (reporter.hadRuntimeError())
+        {
+            Object file = context.getAttribute(ScriptEngine.FILENAME);
+            throw new ScriptException(errors.toString().trim(),
+                    file == null ? null : file.toString(), -1);
+        }
+        return status;
+    }
+
+    /**
+     * Passes what a PrintStream writes on to a Writer, each flush of the stream decodes the bytes written
+     * since the previous one and flushes the writer
+     */
+    private static class WriterStream extends OutputStream
+    {
+        private final Writer writer;
+        private final StringBuilder copy;
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+        /**
+         * @param writer The writer
+         * @param copy Also receives the text written, may be null
+         */
+        WriterStream(Writer writer, StringBuilder copy)
+        {
+            this.writer = writer;
+            this.copy = copy;
+        }
+
+        @Override
+        public void write(int b)
+        {
+            pending.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length)
+        {
+            pending.write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            if (pending.size() == 0)
+            {
+                return;
+            }
+
+            String text = pending.toString(StandardCharsets.UTF_8);
+            pending.reset();
+            if (copy != null)
+            {
+                copy.append(text);
+            }
+            writer.write(text);
+            writer.flush();
+        }
+    }
+
+    @Override
+    public LoxScriptEngine getEngine()
+    {
+        return engine;
+    }
+
+    /**
+     * Defines bindings as globals, Java numbers become Lox numbers, other values are passed as they are
+     * @param globals The global environment
+     * @param bindings The bindings, may be null
+     */
+    private static void define(Environment globals, Bindings bindings)
+    {
+        if (bindings == null)
+        {
+            return;
+        }
+
+        for (Map.Entry<String, Object> binding : bindings.entrySet())
+        {
+            Object value = binding.getValue();
+            if (value instanceof Number)
+            {
+                value = ((Number)value).doubleValue();
+            }
+            else if (value instanceof Character)
+            {
+                value = value.toString();
+            }
+            globals.define(binding.getKey(), value);
+        }
+    }
+}
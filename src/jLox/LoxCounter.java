@@ -0,0 +1,40 @@
+package jLox;
+
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Sum that many tasks add to, created by counter(). Additions go to per thread cells that are only
+ * summed by get, so unlike an atomic the tasks don't contend for a single value
+ */
+class LoxCounter extends NativeInstance
+{
+    private static final LoxClass CLASS = nativeClass("Counter");
+
+    private final DoubleAdder sum = new DoubleAdder();
+
+    LoxCounter()
+    {
+        super(CLASS);
+    }
+
+    @Override
+    LoxCallable method(String name)
+    {
+        switch (name)
+        {
+            case "add":
+                return method(1, arguments -> {
+                    if (!(arguments.get(0) instanceof Double))
+                    {
+                        throw new NativeError("Can only add a number to a counter.");
+                    }
+                    sum.add((double)arguments.get(0));
+                    return null;
+                });
+            case "get":
+                return method(0, arguments -> sum.sum());
+            default:
+                return null;
+        }
+    }
+}
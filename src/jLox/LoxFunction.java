@@ -2,38 +2,120 @@ package jLox;
 
 import java.util.List;
 
-public class LoxFunction implements LoxCallable
+class LoxFunction implements LoxCallable
 {
-    private final Stmt.Function declaration;
-    private final Environment closure;
+    final Stmt.Function declaration;
+    final Environment closure;
     private final boolean isInitializer;
+    // the body of a top level function the parser deferred, null for every other function
+    private final LazyBody lazy;
+    private volatile FunctionCache cache;
 
     LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer)
+    {
+        this(declaration, closure, isInitializer, null);
+    }
+
+    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, LazyBody lazy)
     {
         this.declaration = declaration;
         this.closure = closure;
         this.isInitializer = isInitializer;
+        this.lazy = lazy;
     }
 
     LoxFunction bind(LoxInstance instance)
     {
         Environment environment = new Environment(closure);
         environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        return new LoxFunction(declaration, environment, isInitializer, lazy);
+    }
+
+    /**
+     * Caches the results of the function from now on, only valid for pure functions
+     * @param capacity The maximum number of cached results
+     */
+    void memoize(int capacity)
+    {
+        if (cache == null)
+        {
+            cache = new FunctionCache(capacity);
+        }
+    }
+
+    FunctionCache cache()
+    {
+        return cache;
+    }
+
+    /**
+     * Stops caching the results of the function, once it is no longer known to be pure
+     */
+    void forget()
+    {
+        cache = null;
+    }
+
+    /**
+     * @param interpreter The calling context
+     * @return Indicator of whether calling the function returns a generator running its body
+     */
+    boolean isGenerator(Interpreter interpreter)
+    {
+        if (lazy != null)
+        {
+            interpreter.materialize(declaration, lazy);
+        }
+        return interpreter.isGenerator(declaration);
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments)
     {
+        if (isGenerator(interpreter))
+        {
+            return new LoxGenerator(interpreter, this, arguments);
+        }
+        FunctionCache cache = this.cache;
+        if (cache == null)
+        {
+            return invoke(interpreter, arguments);
+        }
+
+        // the function can be called from several tasks, even a lookup reorders the cache
+        synchronized (cache)
+        {
+            Object value = cache.get(arguments);
+            if (value != null || cache.containsKey(arguments))
+            {
+                cache.hits++;
+                return value;
+            }
+            cache.misses++;
+        }
+
+        // not locked while the function runs, it may call itself
+        Object value = invoke(interpreter, arguments);
+        synchronized (cache)
+        {
+            cache.put(arguments, value);
+        }
+        return value;
+    }
+
+    Object invoke(Interpreter interpreter, List<Object> arguments)
+    {
+        List<Stmt> body = lazy == null ? declaration.body : interpreter.materialize(declaration, lazy);
+
         Environment environment = new Environment(closure);
         for (int i = 0; i < declaration.params.size(); i++)
         {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+            environment.define(declaration.params.get(i).lexeme(), arguments.get(i));
         }
 
         try
         {
-            interpreter.executeBlock(declaration.body, environment);
+            interpreter.executeBlock(body, environment);
         }
         catch (Return returnValue)
         {
@@ -55,6 +137,6 @@ public class LoxFunction implements LoxCallable
     @Override
     public String toString()
     {
-        return "<fn " + declaration.name.lexeme + ">";
+        return "<fn " + declaration.name.lexeme() + ">";
     }
 }
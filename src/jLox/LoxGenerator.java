@@ -0,0 +1,234 @@
+package jLox;
+
+import java.lang.ref.Cleaner;
+import java.util.List;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Iterator returned by calling a function containing yield. The body starts when the first element is
+ * asked for and runs in a forked context on a task thread: each yield hands its value over to the
+ * iterating thread and waits until the next element is asked for, so the body never runs ahead of its
+ * consumer. The body ends the iteration when it returns, a runtime error in it is thrown again where the
+ * element was asked for. Closing a generator before its body finished, as a for-in loop left early does,
+ * interrupts the waiting body and it unwinds; a generator dropped without being closed is stopped the same
+ * way once the garbage collector finds it. The bodies started and not finished are bounded, starting one
+ * more is a runtime error
+ */
+class LoxGenerator extends LoxIterator
+{
+    // handed over when the body returns
+    private static final Object DONE = new Object();
+
+    // bodies started and not finished, each holds a task thread
+    private static final AtomicInteger RUNNING = new AtomicInteger();
+    private static final int MAX_RUNNING = 10000;
+
+    private final Interpreter caller;
+    private final LoxFunction function;
+    private final List<Object> arguments;
+    private final Handoff handoff = new Handoff();
+    private Cleaner.Cleanable stopper = null;
+    private boolean started = false;
+    private boolean finished = false;
+    private Object value = null;
+    private boolean hasValue = false;
+
+    /**
+     * The two sides of a generator meet here, the body only references this and not the generator
+     * itself so the generator can become unreachable while the body waits
+     */
+    static class Handoff implements Runnable
+    {
+        // yielded values with nil as Environment.NIL, then DONE or the error that ended the body
+        private final SynchronousQueue<Object> values = new SynchronousQueue<>();
+        private final SynchronousQueue<Object> resumes = new SynchronousQueue<>();
+        private volatile Thread producer = null;
+
+        /**
+         * Hands a value over to the iterating thread and waits until the next element is asked for,
+         * called by the body
+         * @param value The yielded value
+         */
+        void yieldValue(Object value)
+        {
+            try
+            {
+                values.put(value == null ? Environment.NIL : value);
+                resumes.take();
+            }
+            catch (InterruptedException e)
+            {
+                throw new Abandoned();
+            }
+        }
+
+        /**
+         * Interrupts the waiting body once its generator is closed or unreachable, run by the cleaner
+         */
+        @Override
+        public void run()
+        {
+            Thread thread = producer;
+            if (thread != null)
+            {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Unwinds the body of a dropped generator, nothing in the interpreter catches it
+     */
+    private static class Abandoned extends RuntimeException
+    {
+        Abandoned()
+        {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * @param caller The context calling the function, the body runs in a fork of it
+     * @param function The generator function
+     * @param arguments The arguments of the call
+     */
+    LoxGenerator(Interpreter caller, LoxFunction function, List<Object> arguments)
+    {
+        this.caller = caller;
+        this.function = function;
+        this.arguments = arguments;
+    }
+
+    @Override
+    boolean hasNext(Interpreter interpreter)
+    {
+        if (!hasValue && !finished)
+        {
+            advance();
+        }
+        return hasValue;
+    }
+
+    @Override
+    Object next(Interpreter interpreter)
+    {
+        Object next = value;
+        value = null;
+        hasValue = false;
+        return next;
+    }
+
+    /**
+     * Stops the body waiting at a yield, the generator has no more elements
+     * @param interpreter The context closing the generator
+     */
+    @Override
+    void close(Interpreter interpreter)
+    {
+        if (!finished)
+        {
+            finished = true;
+            value = null;
+            hasValue = false;
+            if (stopper != null)
+            {
+                stopper.clean();
+            }
+        }
+    }
+
+    /**
+     * Runs the body up to its next yield or its end
+     */
+    private void advance()
+    {
+        Object next;
+        try
+        {
+            if (started)
+            {
+                handoff.resumes.put(Boolean.TRUE);
+            }
+            else
+            {
+                start();
+            }
+            next = handoff.values.take();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new NativeError("Interrupted while waiting for a generator.");
+        }
+
+        if (next == DONE)
+        {
+            finished = true;
+        }
+        else if (next instanceof RuntimeException || next instanceof Error)
+        {
+            // Lox values are never exceptions
+            finished = true;
+            if (next instanceof Error)
+            {
+                throw (Error)next;
+            }
+            throw (RuntimeException)next;
+        }
+        else
+        {
+            value = next == Environment.NIL ? null : next;
+            hasValue = true;
+        }
+    }
+
+    private void start()
+    {
+        if (RUNNING.incrementAndGet() > MAX_RUNNING)
+        {
+            RUNNING.decrementAndGet();
+            throw new NativeError("Too many unfinished generators (" + MAX_RUNNING
+                    + "), close the generators left before their end.");
+        }
+
+        started = true;
+        Interpreter context = caller.generatorContext(handoff);
+        Handoff handoff = this.handoff;
+        LoxFunction function = this.function;
+        List<Object> arguments = this.arguments;
+        stopper = CLEANER.register(this, handoff);
+
+        // the task must not reference this generator
+        LoxTask.EXECUTOR.execute(() -> {
+            handoff.producer = Thread.currentThread();
+            Object end = DONE;
+            try
+            {
+                function.invoke(context, arguments);
+            }
+            catch (Abandoned e)
+            {
+                return;
+            }
+            catch (RuntimeException | Error e)
+            {
+                end = e;
+            }
+            finally
+            {
+                handoff.producer = null;
+                RUNNING.decrementAndGet();
+            }
+
+            try
+            {
+                handoff.values.put(end);
+            }
+            catch (InterruptedException e)
+            {
+                // the generator was dropped
+            }
+        });
+    }
+}
@@ -2,39 +2,109 @@ package jLox;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class LoxInstance
+class LoxInstance
 {
-    private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    final LoxClass klass;
+
+    // nil fields hold Environment.NIL
+    private final Map<String, Object> fields;
 
     LoxInstance(LoxClass klass)
+    {
+        this(klass, false);
+    }
+
+    /**
+     * @param klass The class of the instance
+     * @param concurrent Indicator of whether fields may be read and written from several threads at once
+     */
+    LoxInstance(LoxClass klass, boolean concurrent)
     {
         this.klass = klass;
+        this.fields = concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
     }
 
     Object get(Token name)
     {
-        if (fields.containsKey(name.lexeme))
+        return get(name.lexeme(), name.line);
+    }
+
+    /**
+     * Gets a property by name, for callers that only keep the line of the name
+     * @param name The property name
+     * @param line The line reported if the property is undefined
+     * @return the field value or bound method
+     */
+    Object get(String name, int line)
+    {
+        Object value = fields.get(name);
+        if (value != null)
+        {
+            return value == Environment.NIL ? null : value;
+        }
+
+        LoxFunction method = klass.findMethod(name);
+        if (method != null)
+        {
+            return method.bind(this);
+        }
+
+        throw new RuntimeError(new Token(TokenType.IDENTIFIER, name, null, line), "Undefined property '" + name + "'.");
+    }
+
+    /**
+     * Gets a property through the inline cache of a monomorphic access
+     * @param name The property name
+     * @param site The cache of the property access
+     * @return the field value or bound method
+     */
+    Object get(Token name, MethodSite site)
+    {
+        Object value = fields.get(name.lexeme());
+        if (value != null)
         {
-            return fields.get(name.lexeme);
+            return value == Environment.NIL ? null : value;
         }
 
-        LoxFunction method = klass.findMethod(name.lexeme);
+        LoxFunction method = site.find(klass, name.lexeme());
         if (method != null)
         {
             return method.bind(this);
         }
 
-        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme() + "'.");
     }
 
     Object set(Token name, Object value)
     {
-        fields.put(name.lexeme, value);
+        return set(name.lexeme(), value);
+    }
+
+    Object set(String name, Object value)
+    {
+        fields.put(name, value == null ? Environment.NIL : value);
         return value;
     }
 
+    /**
+     * Sets a field only if it still holds the expected value, atomically when the fields are concurrent
+     * @param name The field name
+     * @param expected The value the field must be equal to, nil also matches a missing field
+     * @param value The new value
+     * @return Indicator of whether the field was set
+     */
+    boolean compareAndSet(String name, Object expected, Object value)
+    {
+        Object update = value == null ? Environment.NIL : value;
+        if (expected == null)
+        {
+            return fields.putIfAbsent(name, update) == null || fields.replace(name, Environment.NIL, update);
+        }
+        return fields.replace(name, expected, update);
+    }
+
     @Override
     public String toString()
     {
@@ -0,0 +1,12 @@
+package jLox;
+
+/**
+ * Native value a for-in loop can walk, iterator(value) gets its iterator
+ */
+interface LoxIterable
+{
+    /**
+     * @return a new iterator over the elements, starting at the first one
+     */
+    LoxIterator iterator();
+}
@@ -0,0 +1,479 @@
+package jLox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lazy sequence of values, what for-in loops walk: {@code for (x in iterable) body} calls hasNext and next
+ * on iterator(iterable). Iterators of arrays, maps, ranges, files and generators produce each element when
+ * it is asked for, and map, filter and take wrap an iterator in another one, so a pipeline moves one element
+ * at a time through all its stages and a take stops the source early. toArray and toVector collect the
+ * elements. An iterator is walked only once, close stops it before its end and a for-in loop left by a
+ * return, an exit or an error closes its iterator
+ */
+abstract class LoxIterator extends NativeInstance
+{
+    private static final LoxClass CLASS = nativeClass("Iterator");
+
+    // closes the files and stops the generators of iterators dropped before their end
+    static final Cleaner CLEANER = Cleaner.create();
+
+    LoxIterator()
+    {
+        super(CLASS);
+    }
+
+    /**
+     * @param interpreter The context walking the iterator, the Lox functions of a pipeline are called in it
+     * @return indicator of whether there is a next element, it is computed if needed
+     */
+    abstract boolean hasNext(Interpreter interpreter);
+
+    /**
+     * @param interpreter The context walking the iterator
+     * @return the next element, only called after hasNext returned true
+     */
+    abstract Object next(Interpreter interpreter);
+
+    /**
+     * Stops the iterator before its end, releasing the file or the generator body it holds.
+     * Does nothing for iterators holding nothing, closing twice does nothing either
+     * @param interpreter The context closing the iterator, the close method of an instance is called in it
+     */
+    void close(Interpreter interpreter)
+    {
+    }
+
+    @Override
+    LoxCallable method(String name)
+    {
+        switch (name)
+        {
+            case "hasNext":
+                return method(0, (interpreter, arguments) -> hasNext(interpreter));
+            case "next":
+                return method(0, (interpreter, arguments) -> checkedNext(interpreter));
+            case "map":
+                return method(1, arguments -> new Mapped(this, function(arguments.get(0), "map")));
+            case "filter":
+                return method(1, arguments -> new Filtered(this, function(arguments.get(0), "filter")));
+            case "take":
+                return method(1, arguments -> new Taken(this, count(arguments.get(0))));
+            case "toArray":
+                return method(0, (interpreter, arguments) -> toArray(interpreter));
+            case "toVector":
+                return method(0, (interpreter, arguments) -> toVector(interpreter));
+            case "close":
+                return method(0, (interpreter, arguments) -> {
+                    close(interpreter);
+                    return null;
+                });
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Gets the iterator of a value, what a for-in loop walks
+     * @param interpreter The context asking, it calls the iterator method of an instance
+     * @param value An iterator, an array, a vector or a map (its keys), or an instance with an iterator method
+     *              or with hasNext and next methods
+     * @return the iterator
+     */
+    static LoxIterator of(Interpreter interpreter, Object value)
+    {
+        if (value instanceof LoxIterator)
+        {
+            return (LoxIterator)value;
+        }
+        if (value instanceof LoxIterable)
+        {
+            return ((LoxIterable)value).iterator();
+        }
+
+        if (value instanceof LoxInstance && !(value instanceof NativeInstance))
+        {
+            LoxInstance instance = (LoxInstance)value;
+            LoxFunction iterator = instance.klass.findMethod("iterator");
+            if (iterator != null && iterator.arity() == 0)
+            {
+                Object result = iterator.bind(instance).call(interpreter, Collections.emptyList());
+                if (result != instance)
+                {
+                    return of(interpreter, result);
+                }
+            }
+            if (instance.klass.findMethod("hasNext") != null && instance.klass.findMethod("next") != null)
+            {
+                return new InstanceIterator(instance);
+            }
+        }
+
+        throw new NativeError("Can only iterate over arrays, vectors, maps, iterators and instances with hasNext and next methods.");
+    }
+
+    /**
+     * @return an iterator over the numbers from start up to but not including end
+     */
+    static LoxIterator range(double start, double end)
+    {
+        return new LoxIterator()
+        {
+            private double next = start;
+
+            @Override
+            boolean hasNext(Interpreter interpreter)
+            {
+                return next < end;
+            }
+
+            @Override
+            Object next(Interpreter interpreter)
+            {
+                return next++;
+            }
+        };
+    }
+
+    /**
+     * Opens a text file, the lines are read as the iteration goes
+     * @param path The path of the file
+     * @return an iterator over the lines of the file, without their line terminators
+     */
+    static LoxIterator lines(String path)
+    {
+        try
+        {
+            return new Lines(Files.newBufferedReader(Paths.get(path)));
+        }
+        catch (IOException | InvalidPathException e)
+        {
+            throw new NativeError("Can't open file '" + path + "'.");
+        }
+    }
+
+    /**
+     * Closes the iterator of a for-in loop left before its end
+     * @param interpreter The context running the loop
+     * @param iterator The value of the loop iterator variable
+     */
+    static void closeIterator(Interpreter interpreter, Object iterator)
+    {
+        if (iterator instanceof LoxIterator)
+        {
+            ((LoxIterator)iterator).close(interpreter);
+        }
+    }
+
+    /**
+     * @param lock The collection the iterator walks, tasks may change it
+     * @param iterator The iterator
+     * @return an iterator holding the lock of the collection in each step
+     */
+    static LoxIterator locked(Object lock, LoxIterator iterator)
+    {
+        return new LoxIterator()
+        {
+            @Override
+            boolean hasNext(Interpreter interpreter)
+            {
+                synchronized (lock)
+                {
+                    return iterator.hasNext(interpreter);
+                }
+            }
+
+            @Override
+            Object next(Interpreter interpreter)
+            {
+                synchronized (lock)
+                {
+                    return iterator.next(interpreter);
+                }
+            }
+        };
+    }
+
+    private Object checkedNext(Interpreter interpreter)
+    {
+        if (!hasNext(interpreter))
+        {
+            throw new NativeError("Iterator has no more elements.");
+        }
+        return next(interpreter);
+    }
+
+    private LoxArray toArray(Interpreter interpreter)
+    {
+        LoxArray array = new LoxArray(0);
+        while (hasNext(interpreter))
+        {
+            array.push(next(interpreter));
+        }
+        return array;
+    }
+
+    private LoxVector toVector(Interpreter interpreter)
+    {
+        List<Object> elements = new ArrayList<>();
+        while (hasNext(interpreter))
+        {
+            elements.add(next(interpreter));
+        }
+        return LoxVector.of(elements);
+    }
+
+    private static LoxCallable function(Object function, String method)
+    {
+        if (!(function instanceof LoxCallable) || ((LoxCallable)function).arity() != 1)
+        {
+            throw new NativeError(method + " takes a function of one argument.");
+        }
+        return (LoxCallable)function;
+    }
+
+    private static long count(Object count)
+    {
+        if (!(count instanceof Double) || (double)count < 0 || (double)count != Math.floor((double)count))
+        {
+            throw new NativeError("take takes a non negative integer.");
+        }
+        return (long)(double)count;
+    }
+
+    private static class Mapped extends LoxIterator
+    {
+        private final LoxIterator source;
+        private final LoxCallable function;
+
+        Mapped(LoxIterator source, LoxCallable function)
+        {
+            this.source = source;
+            this.function = function;
+        }
+
+        @Override
+        boolean hasNext(Interpreter interpreter)
+        {
+            return source.hasNext(interpreter);
+        }
+
+        @Override
+        Object next(Interpreter interpreter)
+        {
+            return function.call(interpreter, Collections.singletonList(source.next(interpreter)));
+        }
+
+        @Override
+        void close(Interpreter interpreter)
+        {
+            source.close(interpreter);
+        }
+    }
+
+    private static class Filtered extends LoxIterator
+    {
+        private final LoxIterator source;
+        private final LoxCallable predicate;
+        // the next element that passed the predicate, found ahead by hasNext
+        private Object found = null;
+        private boolean hasFound = false;
+
+        Filtered(LoxIterator source, LoxCallable predicate)
+        {
+            this.source = source;
+            this.predicate = predicate;
+        }
+
+        @Override
+        boolean hasNext(Interpreter interpreter)
+        {
+            while (!hasFound && source.hasNext(interpreter))
+            {
+                Object candidate = source.next(interpreter);
+                if (Interpreter.isTruthy(predicate.call(interpreter, Collections.singletonList(candidate))))
+                {
+                    found = candidate;
+                    hasFound = true;
+                }
+            }
+            return hasFound;
+        }
+
+        @Override
+        Object next(Interpreter interpreter)
+        {
+            Object value = found;
+            found = null;
+            hasFound = false;
+            return value;
+        }
+
+        @Override
+        void close(Interpreter interpreter)
+        {
+            found = null;
+            hasFound = false;
+            source.close(interpreter);
+        }
+    }
+
+    private static class Taken extends LoxIterator
+    {
+        private final LoxIterator source;
+        private long remaining;
+
+        Taken(LoxIterator source, long count)
+        {
+            this.source = source;
+            this.remaining = count;
+        }
+
+        @Override
+        boolean hasNext(Interpreter interpreter)
+        {
+            if (remaining <= 0)
+            {
+                // the source won't be walked further, a generator body stops now
+                source.close(interpreter);
+                return false;
+            }
+            return source.hasNext(interpreter);
+        }
+
+        @Override
+        Object next(Interpreter interpreter)
+        {
+            remaining--;
+            return source.next(interpreter);
+        }
+
+        @Override
+        void close(Interpreter interpreter)
+        {
+            remaining = 0;
+            source.close(interpreter);
+        }
+    }
+
+    /**
+     * Iterator implemented in Lox by a class with hasNext and next methods
+     */
+    private static class InstanceIterator extends LoxIterator
+    {
+        private final LoxInstance instance;
+
+        InstanceIterator(LoxInstance instance)
+        {
+            this.instance = instance;
+        }
+
+        @Override
+        boolean hasNext(Interpreter interpreter)
+        {
+            return Interpreter.isTruthy(call(interpreter, "hasNext"));
+        }
+
+        @Override
+        Object next(Interpreter interpreter)
+        {
+            return call(interpreter, "next");
+        }
+
+        /**
+         * Runs the close method of the instance, if it has one
+         */
+        @Override
+        void close(Interpreter interpreter)
+        {
+            LoxFunction method = instance.klass.findMethod("close");
+            if (method != null && method.arity() == 0)
+            {
+                method.bind(instance).call(interpreter, Collections.emptyList());
+            }
+        }
+
+        private Object call(Interpreter interpreter, String name)
+        {
+            LoxFunction method = instance.klass.findMethod(name);
+            if (method.arity() != 0)
+            {
+                throw new NativeError("Method '" + name + "' of an iterator can't take arguments.");
+            }
+            return method.bind(instance).call(interpreter, Collections.emptyList());
+        }
+    }
+
+    private static class Lines extends LoxIterator
+    {
+        private final BufferedReader reader;
+        private final Cleaner.Cleanable closer;
+        private String line = null;
+        private boolean closed = false;
+
+        Lines(BufferedReader reader)
+        {
+            this.reader = reader;
+            this.closer = CLEANER.register(this, () -> close(reader));
+        }
+
+        @Override
+        boolean hasNext(Interpreter interpreter)
+        {
+            if (line == null && !closed)
+            {
+                try
+                {
+                    line = reader.readLine();
+                }
+                catch (IOException e)
+                {
+                    closed = true;
+                    closer.clean();
+                    throw new NativeError("Can't read file: " + e.getMessage());
+                }
+                if (line == null)
+                {
+                    closed = true;
+                    closer.clean();
+                }
+            }
+            return line != null;
+        }
+
+        @Override
+        Object next(Interpreter interpreter)
+        {
+            String value = line;
+            line = null;
+            return value;
+        }
+
+        @Override
+        void close(Interpreter interpreter)
+        {
+            line = null;
+            closed = true;
+            closer.clean();
+        }
+
+        private static void close(BufferedReader reader)
+        {
+            try
+            {
+                reader.close();
+            }
+            catch (IOException e)
+            {
+                // nothing left to read from it either way
+            }
+        }
+    }
+}
@@ -0,0 +1,429 @@
+package jLox;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hash map created by map(), keys are compared the way == compares them. Entries live in an array of
+ * keys interleaved with their values and an array of hashes, with robin hood linear probing: an insert
+ * takes the slot of an entry closer to its ideal slot, which keeps probe sequences short, and removals
+ * shift the following entries back instead of leaving tombstones. The spread hash of each key is stored: probes scan the compact hash
+ * array and only look at a key when its hash matches, then compare it by reference before calling equals,
+ * which string literals and reused keys pass. Iterating walks the slots without creating entry objects.
+ * Maps created in a thread safe interpreter lock themselves in each method and iterator step so tasks can
+ * share them, forEach then calls its function on a copy of the entries. Other maps are not thread safe
+ */
+class LoxMap extends NativeInstance implements LoxIterable
+{
+    private static final LoxClass CLASS = nativeClass("Map");
+
+    private static final int MINIMUM_CAPACITY = 8;
+
+    // multiplier of the Fibonacci hashing, the top bits of the product pick the ideal slot
+    private static final int GOLDEN = 0x9E3779B9;
+
+    // hash of an empty slot, keys with that hash use 1 instead
+    private static final int EMPTY = 0;
+
+    // gives every map its own seed, so copying a map in slot order doesn't fill the copy front to back
+    private static final AtomicInteger SEEDS = new AtomicInteger();
+
+    // key of each slot followed by its value, nil keys hold Environment.NIL
+    private Object[] entries;
+    // spread hash of the key of each slot, probes scan them before looking at a key
+    private int[] hashes;
+    private int size = 0;
+    private int shift;
+
+    // counts inserts and removals, iterations stop if the map changes under them
+    private int changes = 0;
+
+    private final int seed = SEEDS.addAndGet(GOLDEN);
+    private final boolean threadSafe;
+
+    LoxMap()
+    {
+        this(false);
+    }
+
+    /**
+     * @param threadSafe Indicator of whether tasks may share the map
+     */
+    LoxMap(boolean threadSafe)
+    {
+        super(CLASS);
+        this.threadSafe = threadSafe;
+        allocate(MINIMUM_CAPACITY);
+    }
+
+    @Override
+    LoxCallable method(String name)
+    {
+        LoxCallable method;
+        switch (name)
+        {
+            case "get":
+                method = method(1, arguments -> get(arguments.get(0)));
+                break;
+            case "set":
+                method = method(2, arguments -> put(arguments.get(0), arguments.get(1)));
+                break;
+            case "has":
+                method = method(1, arguments -> find(key(arguments.get(0))) >= 0);
+                break;
+            case "remove":
+                method = method(1, arguments -> remove(arguments.get(0)));
+                break;
+            case "size":
+                method = method(0, arguments -> (double)size);
+                break;
+            case "keys":
+                method = method(0, arguments -> collect(true));
+                break;
+            case "values":
+                method = method(0, arguments -> collect(false));
+                break;
+            case "forEach":
+                // not locked while the function runs, it may use the map or wait on a task using it
+                return method(1, (interpreter, arguments) -> forEach(interpreter, arguments.get(0)));
+            default:
+                return null;
+        }
+        return threadSafe ? locked(this, method) : method;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    Object get(Object key)
+    {
+        int slot = find(key(key));
+        return slot < 0 ? null : entries[2 * slot + 1];
+    }
+
+    Object put(Object key, Object value)
+    {
+        key = key(key);
+        int hash = hash(key);
+        int slot = find(key, hash);
+
+        if (slot >= 0)
+        {
+            entries[2 * slot + 1] = value;
+            return value;
+        }
+
+        if (size + 1 > hashes.length - (hashes.length >> 3))
+        {
+            resize(hashes.length * 2);
+        }
+        insert(key, value, hash);
+        size++;
+        changes++;
+        return value;
+    }
+
+    Object remove(Object key)
+    {
+        int slot = find(key(key));
+        if (slot < 0)
+        {
+            return null;
+        }
+
+        Object value = entries[2 * slot + 1];
+        int mask = hashes.length - 1;
+        int next = (slot + 1) & mask;
+
+        // shift back the entries after the removed one until one sits in its ideal slot
+        while (hashes[next] != EMPTY && distance(next) != 0)
+        {
+            entries[2 * slot] = entries[2 * next];
+            entries[2 * slot + 1] = entries[2 * next + 1];
+            hashes[slot] = hashes[next];
+            slot = next;
+            next = (next + 1) & mask;
+        }
+
+        entries[2 * slot] = null;
+        entries[2 * slot + 1] = null;
+        hashes[slot] = EMPTY;
+        size--;
+        changes++;
+        return value;
+    }
+
+    /**
+     * Finds the next entry, iterate with {@code for (int slot = next(0); slot >= 0; slot = next(slot + 1))}
+     * @param slot The slot to start looking from
+     * @return the first used slot from there, -1 after the last one
+     */
+    int next(int slot)
+    {
+        for (; slot < hashes.length; slot++)
+        {
+            if (hashes[slot] != EMPTY)
+            {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    Object keyAt(int slot)
+    {
+        Object key = entries[2 * slot];
+        return key == Environment.NIL ? null : key;
+    }
+
+    Object valueAt(int slot)
+    {
+        return entries[2 * slot + 1];
+    }
+
+    /**
+     * @return an iterator over the keys, it fails if the map changes under it
+     */
+    @Override
+    public LoxIterator iterator()
+    {
+        if (threadSafe)
+        {
+            synchronized (this)
+            {
+                return LoxIterator.locked(this, keyIterator());
+            }
+        }
+        return keyIterator();
+    }
+
+    private LoxIterator keyIterator()
+    {
+        int expected = changes;
+        return new LoxIterator()
+        {
+            private int slot = LoxMap.this.next(0);
+
+            @Override
+            boolean hasNext(Interpreter interpreter)
+            {
+                checkChanges(expected);
+                return slot >= 0;
+            }
+
+            @Override
+            Object next(Interpreter interpreter)
+            {
+                Object key = keyAt(slot);
+                slot = LoxMap.this.next(slot + 1);
+                return key;
+            }
+        };
+    }
+
+    /**
+     * Checks that the map didn't change since an iteration started
+     * @param expected The change count when the iteration started
+     */
+    private void checkChanges(int expected)
+    {
+        if (changes != expected)
+        {
+            throw new NativeError("Map changed while iterating over it.");
+        }
+    }
+
+    private Object forEach(Interpreter interpreter, Object function)
+    {
+        if (!(function instanceof LoxCallable) || ((LoxCallable)function).arity() != 2)
+        {
+            throw new NativeError("forEach takes a function of a key and a value.");
+        }
+
+        if (threadSafe)
+        {
+            Object[] copy;
+            synchronized (this)
+            {
+                copy = new Object[2 * size];
+                int i = 0;
+                for (int slot = next(0); slot >= 0; slot = next(slot + 1))
+                {
+                    copy[i++] = keyAt(slot);
+                    copy[i++] = valueAt(slot);
+                }
+            }
+            for (int i = 0; i < copy.length; i += 2)
+            {
+                ((LoxCallable)function).call(interpreter, Arrays.asList(copy[i], copy[i + 1]));
+            }
+            return null;
+        }
+
+        int expected = changes;
+        for (int slot = next(0); slot >= 0; slot = next(slot + 1))
+        {
+            ((LoxCallable)function).call(interpreter, Arrays.asList(keyAt(slot), valueAt(slot)));
+            checkChanges(expected);
+        }
+        return null;
+    }
+
+    /**
+     * @param keys Indicator of whether to collect the keys or the values
+     * @return an array of the keys or values of the entries
+     */
+    private LoxArray collect(boolean keys)
+    {
+        LoxArray array = new LoxArray(0);
+        for (int slot = next(0); slot >= 0; slot = next(slot + 1))
+        {
+            array.push(keys ? keyAt(slot) : valueAt(slot));
+        }
+        return array;
+    }
+
+    private static Object key(Object key)
+    {
+        return key == null ? Environment.NIL : key;
+    }
+
+    private int hash(Object key)
+    {
+        // String caches its hash code, Double mixes the bits of its value, nil gets a fixed one so
+        // iteration orders are the same from one run to the next
+        int hash = ((key == Environment.NIL ? 0 : key.hashCode()) ^ seed) * GOLDEN;
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    private int find(Object key)
+    {
+        return find(key, hash(key));
+    }
+
+    /**
+     * Probes for a key, stopping at an empty slot or at an entry closer to its ideal slot than the key
+     * would be, robin hood insertion guarantees the key isn't further
+     * @param key The key, nil already replaced by Environment.NIL
+     * @param hash The spread hash of the key
+     * @return the slot of the key, -1 if the map doesn't have it
+     */
+    private int find(Object key, int hash)
+    {
+        int mask = hashes.length - 1;
+        int slot = hash >>> shift;
+
+        for (int distance = 0; ; distance++)
+        {
+            int candidate = hashes[slot];
+            if (candidate == hash)
+            {
+                Object candidateKey = entries[2 * slot];
+                if (candidateKey == key || candidateKey.equals(key))
+                {
+                    return slot;
+                }
+            }
+            else if (candidate == EMPTY || distance > ((slot - (candidate >>> shift)) & mask))
+            {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void insert(Object key, Object value, int hash)
+    {
+        int mask = hashes.length - 1;
+        int slot = hash >>> shift;
+        int distance = 0;
+
+        while (hashes[slot] != EMPTY)
+        {
+            int existing = distance(slot);
+            if (existing < distance)
+            {
+                // the entry here is closer to its ideal slot, it moves on in place of the inserted one
+                Object swappedKey = entries[2 * slot];
+                Object swappedValue = entries[2 * slot + 1];
+                int swappedHash = hashes[slot];
+
+                entries[2 * slot] = key;
+                entries[2 * slot + 1] = value;
+                hashes[slot] = hash;
+
+                key = swappedKey;
+                value = swappedValue;
+                hash = swappedHash;
+                distance = existing;
+            }
+            slot = (slot + 1) & mask;
+            distance++;
+        }
+
+        entries[2 * slot] = key;
+        entries[2 * slot + 1] = value;
+        hashes[slot] = hash;
+    }
+
+    /**
+     * @param slot A used slot
+     * @return how far the entry in the slot is from its ideal slot
+     */
+    private int distance(int slot)
+    {
+        return (slot - (hashes[slot] >>> shift)) & (hashes.length - 1);
+    }
+
+    private void allocate(int capacity)
+    {
+        entries = new Object[2 * capacity];
+        hashes = new int[capacity];
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    private void resize(int capacity)
+    {
+        Object[] oldEntries = entries;
+        int[] oldHashes = hashes;
+
+        allocate(capacity);
+        for (int slot = 0; slot < oldHashes.length; slot++)
+        {
+            if (oldHashes[slot] != EMPTY)
+            {
+                insert(oldEntries[2 * slot], oldEntries[2 * slot + 1], oldHashes[slot]);
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        if (threadSafe)
+        {
+            synchronized (this)
+            {
+                return text();
+            }
+        }
+        return text();
+    }
+
+    private String text()
+    {
+        StringBuilder text = new StringBuilder("{");
+        for (int slot = next(0); slot >= 0; slot = next(slot + 1))
+        {
+            if (text.length() > 1)
+            {
+                text.append(", ");
+            }
+            text.append(keyAt(slot) == this ? "{...}" : Interpreter.stringify(keyAt(slot))).append(": ");
+            text.append(valueAt(slot) == this ? "{...}" : Interpreter.stringify(valueAt(slot)));
+        }
+        return text.append("}").toString();
+    }
+}
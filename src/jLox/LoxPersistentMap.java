@@ -0,0 +1,469 @@
+package jLox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable hash map created by persistentMap(), keys are compared the way == compares them. set and remove
+ * return a new map and leave the old one as it was. It is a hash array mapped trie: every node branches on
+ * 5 bits of the key hash and only stores its present branches, found through a bitmap, so a new map copies
+ * the few small nodes on the path to the changed entry and shares all the others with the old one. Keys whose
+ * hashes are equal in all 32 bits end up together in a collision node. Maps are compared by value and
+ * can be shared between tasks
+ */
+class LoxPersistentMap extends NativeInstance implements LoxIterable
+{
+    private static final LoxClass CLASS = nativeClass("PersistentMap");
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    // returned by lookups for a missing key, nil being a value
+    private static final Object MISSING = new Object();
+
+    static final LoxPersistentMap EMPTY = new LoxPersistentMap(Node.EMPTY, 0);
+
+    private final Node root;
+    private final int size;
+    // computed when first asked for, 0 until then
+    private int hash = 0;
+
+    /**
+     * Node of the trie. Its array holds a key followed by its value for each present branch, or null
+     * followed by the child node when several keys share the branch. Below the last level a node is a
+     * collision node, its bitmap is unused and its array holds the entries of keys with the same hash
+     */
+    private static class Node
+    {
+        static final Node EMPTY = new Node(0, new Object[0]);
+
+        final int bitmap;
+        final Object[] array;
+
+        Node(int bitmap, Object[] array)
+        {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        Object find(int shift, int hash, Object key)
+        {
+            if (shift >= 32)
+            {
+                for (int i = 0; i < array.length; i += 2)
+                {
+                    if (array[i].equals(key))
+                    {
+                        return array[i + 1];
+                    }
+                }
+                return MISSING;
+            }
+
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+            {
+                return MISSING;
+            }
+
+            int index = 2 * Integer.bitCount(bitmap & (bit - 1));
+            Object existing = array[index];
+            if (existing == null)
+            {
+                return ((Node)array[index + 1]).find(shift + BITS, hash, key);
+            }
+            return existing.equals(key) ? array[index + 1] : MISSING;
+        }
+
+        /**
+         * @param added Set to true if the key is new
+         * @return the node with the entry, this if it was already there with the same value
+         */
+        Node put(int shift, int hash, Object key, Object value, boolean[] added)
+        {
+            if (shift >= 32)
+            {
+                for (int i = 0; i < array.length; i += 2)
+                {
+                    if (array[i].equals(key))
+                    {
+                        return array[i + 1] == value ? this : replace(i + 1, value);
+                    }
+                }
+                added[0] = true;
+                Object[] entries = Arrays.copyOf(array, array.length + 2);
+                entries[array.length] = key;
+                entries[array.length + 1] = value;
+                return new Node(0, entries);
+            }
+
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int index = 2 * Integer.bitCount(bitmap & (bit - 1));
+
+            if ((bitmap & bit) == 0)
+            {
+                added[0] = true;
+                Object[] entries = new Object[array.length + 2];
+                System.arraycopy(array, 0, entries, 0, index);
+                entries[index] = key;
+                entries[index + 1] = value;
+                System.arraycopy(array, index, entries, index + 2, array.length - index);
+                return new Node(bitmap | bit, entries);
+            }
+
+            Object existing = array[index];
+            if (existing == null)
+            {
+                Node child = (Node)array[index + 1];
+                Node newChild = child.put(shift + BITS, hash, key, value, added);
+                return newChild == child ? this : replace(index + 1, newChild);
+            }
+            if (existing.equals(key))
+            {
+                return array[index + 1] == value ? this : replace(index + 1, value);
+            }
+
+            // two keys share the branch, they move to a child node
+            added[0] = true;
+            Node child = EMPTY.put(shift + BITS, hash(existing), existing, array[index + 1], new boolean[1])
+                    .put(shift + BITS, hash, key, value, new boolean[1]);
+            Node copy = replace(index + 1, child);
+            copy.array[index] = null;
+            return copy;
+        }
+
+        /**
+         * @return the node without the entry, this if the key isn't there, null if nothing is left
+         */
+        Node remove(int shift, int hash, Object key)
+        {
+            if (shift >= 32)
+            {
+                for (int i = 0; i < array.length; i += 2)
+                {
+                    if (array[i].equals(key))
+                    {
+                        return array.length == 2 ? null : new Node(0, without(i));
+                    }
+                }
+                return this;
+            }
+
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+            {
+                return this;
+            }
+
+            int index = 2 * Integer.bitCount(bitmap & (bit - 1));
+            Object existing = array[index];
+            if (existing == null)
+            {
+                Node child = (Node)array[index + 1];
+                Node newChild = child.remove(shift + BITS, hash, key);
+                if (newChild == child)
+                {
+                    return this;
+                }
+                if (newChild == null)
+                {
+                    return bitmap == bit ? null : new Node(bitmap & ~bit, without(index));
+                }
+                if (newChild.array.length == 2 && newChild.array[0] != null)
+                {
+                    // a single entry left below moves back up in place of its node
+                    Node copy = replace(index + 1, newChild.array[1]);
+                    copy.array[index] = newChild.array[0];
+                    return copy;
+                }
+                return replace(index + 1, newChild);
+            }
+            if (existing.equals(key))
+            {
+                return bitmap == bit ? null : new Node(bitmap & ~bit, without(index));
+            }
+            return this;
+        }
+
+        private Node replace(int index, Object value)
+        {
+            Object[] entries = array.clone();
+            entries[index] = value;
+            return new Node(bitmap, entries);
+        }
+
+        /**
+         * @return a copy of the array without the pair starting at the index
+         */
+        private Object[] without(int index)
+        {
+            Object[] entries = new Object[array.length - 2];
+            System.arraycopy(array, 0, entries, 0, index);
+            System.arraycopy(array, index + 2, entries, index, array.length - index - 2);
+            return entries;
+        }
+    }
+
+    /**
+     * Walks the entries of a trie depth first, keeping the path to the current node
+     */
+    private static class Cursor
+    {
+        // deepest path: 7 levels of 5 bits and a collision node
+        private final Node[] nodes = new Node[8];
+        private final int[] positions = new int[8];
+        private int depth = 0;
+        Object key;
+        Object value;
+
+        Cursor(Node root)
+        {
+            nodes[0] = root;
+        }
+
+        /**
+         * @return indicator of whether there was another entry, it is then in key and value
+         */
+        boolean advance()
+        {
+            while (depth >= 0)
+            {
+                Node node = nodes[depth];
+                int position = positions[depth];
+                if (position >= node.array.length)
+                {
+                    depth--;
+                    continue;
+                }
+
+                positions[depth] = position + 2;
+                if (node.array[position] == null)
+                {
+                    depth++;
+                    nodes[depth] = (Node)node.array[position + 1];
+                    positions[depth] = 0;
+                }
+                else
+                {
+                    key = node.array[position] == Environment.NIL ? null : node.array[position];
+                    value = node.array[position + 1];
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private LoxPersistentMap(Node root, int size)
+    {
+        super(CLASS);
+        this.root = root;
+        this.size = size;
+    }
+
+    @Override
+    LoxCallable method(String name)
+    {
+        switch (name)
+        {
+            case "get":
+                return method(1, arguments -> get(arguments.get(0)));
+            case "set":
+                return method(2, arguments -> put(arguments.get(0), arguments.get(1)));
+            case "has":
+                return method(1, arguments -> has(arguments.get(0)));
+            case "remove":
+                return method(1, arguments -> remove(arguments.get(0)));
+            case "size":
+                return method(0, arguments -> (double)size);
+            case "keys":
+                return method(0, arguments -> collect(true));
+            case "values":
+                return method(0, arguments -> collect(false));
+            case "forEach":
+                return method(1, (interpreter, arguments) -> forEach(interpreter, arguments.get(0)));
+            default:
+                return null;
+        }
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    Object get(Object key)
+    {
+        key = key(key);
+        Object value = root.find(0, hash(key), key);
+        return value == MISSING ? null : value;
+    }
+
+    boolean has(Object key)
+    {
+        key = key(key);
+        return root.find(0, hash(key), key) != MISSING;
+    }
+
+    LoxPersistentMap put(Object key, Object value)
+    {
+        key = key(key);
+        boolean[] added = new boolean[1];
+        Node newRoot = root.put(0, hash(key), key, value, added);
+        return newRoot == root ? this : new LoxPersistentMap(newRoot, added[0] ? size + 1 : size);
+    }
+
+    LoxPersistentMap remove(Object key)
+    {
+        key = key(key);
+        Node newRoot = root.remove(0, hash(key), key);
+        if (newRoot == root)
+        {
+            return this;
+        }
+        return newRoot == null ? EMPTY : new LoxPersistentMap(newRoot, size - 1);
+    }
+
+    private Object forEach(Interpreter interpreter, Object function)
+    {
+        if (!(function instanceof LoxCallable) || ((LoxCallable)function).arity() != 2)
+        {
+            throw new NativeError("forEach takes a function of a key and a value.");
+        }
+
+        Cursor cursor = new Cursor(root);
+        while (cursor.advance())
+        {
+            ((LoxCallable)function).call(interpreter, Arrays.asList(cursor.key, cursor.value));
+        }
+        return null;
+    }
+
+    /**
+     * @param keys Indicator of whether to collect the keys or the values
+     * @return a vector of the keys or values of the entries
+     */
+    private LoxVector collect(boolean keys)
+    {
+        List<Object> elements = new ArrayList<>(size);
+        Cursor cursor = new Cursor(root);
+        while (cursor.advance())
+        {
+            elements.add(keys ? cursor.key : cursor.value);
+        }
+        return LoxVector.of(elements);
+    }
+
+    private static Object key(Object key)
+    {
+        return key == null ? Environment.NIL : key;
+    }
+
+    /**
+     * Mixes the hash code of a key, the trie branches on its low bits first and the hash codes
+     * of whole numbers differ only in their high bits. nil hashes to 0 so the order of the entries
+     * is the same from one run to the next
+     */
+    private static int hash(Object key)
+    {
+        int hash = key == Environment.NIL ? 0 : key.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        return hash ^ hash >>> 16;
+    }
+
+    /**
+     * @return an iterator over the keys
+     */
+    @Override
+    public LoxIterator iterator()
+    {
+        Cursor cursor = new Cursor(root);
+        return new LoxIterator()
+        {
+            private boolean advanced = false;
+            private boolean hasEntry = false;
+
+            @Override
+            boolean hasNext(Interpreter interpreter)
+            {
+                if (!advanced)
+                {
+                    hasEntry = cursor.advance();
+                    advanced = true;
+                }
+                return hasEntry;
+            }
+
+            @Override
+            Object next(Interpreter interpreter)
+            {
+                advanced = false;
+                return cursor.key;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        if (other == this)
+        {
+            return true;
+        }
+        if (!(other instanceof LoxPersistentMap) || ((LoxPersistentMap)other).size != size
+                || other.hashCode() != hashCode())
+        {
+            return false;
+        }
+
+        LoxPersistentMap map = (LoxPersistentMap)other;
+        Cursor cursor = new Cursor(root);
+        while (cursor.advance())
+        {
+            Object key = key(cursor.key);
+            Object value = map.root.find(0, hash(key), key);
+            if (value == MISSING || !Interpreter.isEqual(cursor.value, value))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = hash;
+        if (result == 0)
+        {
+            // a sum, maps with the same entries get the same hash whatever the shape of their tries
+            Cursor cursor = new Cursor(root);
+            while (cursor.advance())
+            {
+                result += (cursor.key == null ? 0 : cursor.key.hashCode()) ^ (cursor.value == null ? 0 : cursor.value.hashCode());
+            }
+            hash = result;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder text = new StringBuilder("{");
+        Cursor cursor = new Cursor(root);
+        while (cursor.advance())
+        {
+            if (text.length() > 1)
+            {
+                text.append(", ");
+            }
+            text.append(Interpreter.stringify(cursor.key)).append(": ").append(Interpreter.stringify(cursor.value));
+        }
+        return text.append("}").toString();
+    }
+}
@@ -0,0 +1,119 @@
+package jLox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+/**
+ * javax.script engine running Lox. Scripts are compiled into Programs, the last compiled ones are
+ * kept by source so evaluating the same script again skips the front end
+ */
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable
+{
+    static final int CACHE_CAPACITY = 64;
+
+    private final ScriptEngineFactory factory;
+    private final Map<String, LoxCompiledScript> compiled = new LinkedHashMap<String, LoxCompiledScript>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LoxCompiledScript> eldest)
+        {
+            return size() > CACHE_CAPACITY;
+        }
+    };
+
+    LoxScriptEngine(ScriptEngineFactory factory)
+    {
+        this.factory = factory;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException
+    {
+        return compile(script).eval(context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException
+    {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public LoxCompiledScript compile(String script) throws ScriptException
+    {
+        synchronized (compiled)
+        {
+            LoxCompiledScript cached = compiled.get(script);
+            if (cached != null)
+            {
+                return cached;
+            }
+        }
+
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        ErrorReporter reporter = new ErrorReporter(new PrintStream(errors, true, StandardCharsets.UTF_8));
+        Program program = Program.compile(script, reporter);
+
+        if (program == null)
+        {
+            throw new ScriptException(errors.toString(StandardCharsets.UTF_8).trim());
+        }
+
+        LoxCompiledScript result = new LoxCompiledScript(this, program);
+        synchronized (compiled)
+        {
+            compiled.put(script, result);
+        }
+        return result;
+    }
+
+    @Override
+    public CompiledScript compile(Reader script) throws ScriptException
+    {
+        return compile(read(script));
+    }
+
+    @Override
+    public Bindings createBindings()
+    {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory()
+    {
+        return factory;
+    }
+
+    private static String read(Reader reader) throws ScriptException
+    {
+        StringBuilder script = new StringBuilder();
+        char[] buffer = new char[8192];
+
+        try
+        {
+            for (int count = reader.read(buffer); count != -1; count = reader.read(buffer))
+            {
+                script.append(buffer, 0, count);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new ScriptException(e);
+        }
+        return script.toString();
+    }
+}
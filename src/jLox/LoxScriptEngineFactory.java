@@ -0,0 +1,117 @@
+package jLox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+/**
+ * Registers jLox with javax.script, engines are found by the name "lox", the extension "lox"
+ * or the mime type application/x-lox
+ */
+public class LoxScriptEngineFactory implements ScriptEngineFactory
+{
+    private static final String VERSION = "1.0";
+
+    /**
+     * Called by the ServiceLoader of ScriptEngineManager
+     */
+    public LoxScriptEngineFactory()
+    {
+    }
+
+    @Override
+    public String getEngineName()
+    {
+        return "jLox";
+    }
+
+    @Override
+    public String getEngineVersion()
+    {
+        return VERSION;
+    }
+
+    @Override
+    public List<String> getExtensions()
+    {
+        return Collections.singletonList("lox");
+    }
+
+    @Override
+    public List<String> getMimeTypes()
+    {
+        return Collections.singletonList("application/x-lox");
+    }
+
+    @Override
+    public List<String> getNames()
+    {
+        return Arrays.asList("lox", "jlox", "jLox");
+    }
+
+    @Override
+    public String getLanguageName()
+    {
+        return "Lox";
+    }
+
+    @Override
+    public String getLanguageVersion()
+    {
+        return VERSION;
+    }
+
+    @Override
+    public Object getParameter(String key)
+    {
+        switch (key)
+        {
+            case ScriptEngine.ENGINE:
+                return getEngineName();
+            case ScriptEngine.ENGINE_VERSION:
+                return getEngineVersion();
+            case ScriptEngine.NAME:
+                return getNames().get(0);
+            case ScriptEngine.LANGUAGE:
+                return getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION:
+                return getLanguageVersion();
+            case "THREADING":
+                // each evaluation runs in its own interpreter, only the bindings are shared
+                return "MULTITHREADED";
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String getMethodCallSyntax(String obj, String m, String... args)
+    {
+        return obj + "." + m + "(" + String.join(", ", args) + ")";
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay)
+    {
+        return "print \"" + toDisplay.replace("\"", "") + "\";";
+    }
+
+    @Override
+    public String getProgram(String... statements)
+    {
+        StringBuilder program = new StringBuilder();
+        for (String statement : statements)
+        {
+            program.append(statement).append(";\n");
+        }
+        return program.toString();
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine()
+    {
+        return new LoxScriptEngine(this);
+    }
+}
@@ -0,0 +1,115 @@
+package jLox;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A function running on its own thread, created by spawn or by sending a message to an actor. The function
+ * runs in a forked interpreter context: it has its own call stack but shares the globals and every object
+ * with the spawner. Tasks run on virtual threads when the JVM has them, otherwise on a pool of daemon threads
+ */
+class LoxTask extends NativeInstance
+{
+    private static final LoxClass CLASS = nativeClass("Task");
+    static final Executor EXECUTOR = executor();
+
+    private final FutureTask<Object> future;
+
+    /**
+     * @param future The computation of the result, run by the creator of the task
+     */
+    LoxTask(FutureTask<Object> future)
+    {
+        super(CLASS);
+        this.future = future;
+    }
+
+    /**
+     * Starts a function without parameters on a new thread
+     * @param function The function
+     * @param context The forked interpreter context the function runs in
+     * @return the task
+     */
+    static LoxTask spawn(LoxCallable function, Interpreter context)
+    {
+        LoxTask task = new LoxTask(new FutureTask<>(() -> function.call(context, Collections.emptyList())));
+        EXECUTOR.execute(task.future);
+        return task;
+    }
+
+    @Override
+    LoxCallable method(String name)
+    {
+        switch (name)
+        {
+            case "join":
+                return method(0, arguments -> join());
+            case "done":
+                return method(0, arguments -> future.isDone());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Waits for the function to return, a runtime error or an exit that ended it is thrown again in the joiner
+     * @return the returned value
+     */
+    private Object join()
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeError)
+            {
+                throw (RuntimeError)e.getCause();
+            }
+            if (e.getCause() instanceof Exit)
+            {
+                throw (Exit)e.getCause();
+            }
+            if (e.getCause() instanceof StackOverflowError)
+            {
+                throw new NativeError("Task failed: stack overflow.");
+            }
+            // a fault of the interpreter, not of the script, its Java exception means nothing to the script
+            throw new NativeError("Task failed with an internal error.");
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new NativeError("Interrupted while joining a task.");
+        }
+    }
+
+    /**
+     * Looks up Thread.ofVirtual() reflectively so the interpreter still builds and runs on JDKs without it
+     * @return an executor starting a virtual thread per task, or a cached pool of daemon threads
+     */
+    private static Executor executor()
+    {
+        try
+        {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            ThreadFactory threads = (ThreadFactory)factory.invoke(ofVirtual.invoke(null));
+            return task -> threads.newThread(task).start();
+        }
+        catch (ReflectiveOperationException | UnsupportedOperationException e)
+        {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "lox-task");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
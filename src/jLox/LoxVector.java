@@ -0,0 +1,405 @@
+package jLox;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable vector created by vector(). set, push, pop and concat return a new vector and leave the old
+ * one as it was: elements live in the leaves of a trie of 32 wide nodes, plus a tail leaf holding the last
+ * ones, and a new vector copies only the path to the changed leaf and shares every other node with the old
+ * one, so a modified copy costs O(log32 n). Vectors are compared by value and can be shared between tasks
+ */
+class LoxVector extends NativeInstance implements LoxIterable
+{
+    private static final LoxClass CLASS = nativeClass("Vector");
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final Object[] EMPTY_NODE = new Object[WIDTH];
+    static final LoxVector EMPTY = new LoxVector(0, BITS, EMPTY_NODE, new Object[0]);
+
+    private final int size;
+    // bits of an index consumed by the root, each level down consumes BITS less
+    private final int shift;
+    private final Object[] root;
+    private final Object[] tail;
+    // computed when first asked for, 0 until then
+    private int hash = 0;
+
+    private LoxVector(int size, int shift, Object[] root, Object[] tail)
+    {
+        super(CLASS);
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    /**
+     * Builds a vector bottom up, without the copies of pushing the elements one by one
+     * @param elements The elements in order
+     * @return the vector
+     */
+    static LoxVector of(List<Object> elements)
+    {
+        int size = elements.size();
+        if (size == 0)
+        {
+            return EMPTY;
+        }
+
+        int tailOffset = tailOffset(size);
+        Object[] tail = elements.subList(tailOffset, size).toArray();
+
+        Object[][] nodes = new Object[tailOffset >>> BITS][];
+        for (int i = 0; i < nodes.length; i++)
+        {
+            nodes[i] = elements.subList(i << BITS, (i + 1) << BITS).toArray();
+        }
+
+        // group the nodes of a level into parents until the root has room for all of them
+        int shift = BITS;
+        while (nodes.length > WIDTH)
+        {
+            Object[][] parents = new Object[(nodes.length + MASK) >>> BITS][];
+            for (int i = 0; i < parents.length; i++)
+            {
+                parents[i] = Arrays.copyOf(Arrays.copyOfRange(nodes, i << BITS, Math.min((i + 1) << BITS, nodes.length)), WIDTH, Object[].class);
+            }
+            nodes = parents;
+            shift += BITS;
+        }
+
+        return new LoxVector(size, shift, Arrays.copyOf(nodes, WIDTH, Object[].class), tail);
+    }
+
+    @Override
+    LoxCallable method(String name)
+    {
+        switch (name)
+        {
+            case "get":
+                return method(1, arguments -> get(index(arguments.get(0))));
+            case "set":
+                return method(2, arguments -> set(index(arguments.get(0)), arguments.get(1)));
+            case "push":
+                return method(1, arguments -> push(arguments.get(0)));
+            case "pop":
+                return method(0, arguments -> pop());
+            case "length":
+                return method(0, arguments -> (double)size);
+            case "concat":
+                return method(1, arguments -> concat(arguments.get(0)));
+            default:
+                return null;
+        }
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    Object get(int index)
+    {
+        return leaf(index)[index & MASK];
+    }
+
+    LoxVector set(int index, Object value)
+    {
+        if (index >= tailOffset(size))
+        {
+            Object[] newTail = tail.clone();
+            newTail[index & MASK] = value;
+            return new LoxVector(size, shift, root, newTail);
+        }
+        return new LoxVector(size, shift, set(shift, root, index, value), tail);
+    }
+
+    LoxVector push(Object value)
+    {
+        if (size - tailOffset(size) < WIDTH)
+        {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = value;
+            return new LoxVector(size + 1, shift, root, newTail);
+        }
+
+        // the tail is full, it moves into the trie and a new one starts
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift))
+        {
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = path(shift, tail);
+            newShift += BITS;
+        }
+        else
+        {
+            newRoot = pushLeaf(shift, root, tail);
+        }
+        return new LoxVector(size + 1, newShift, newRoot, new Object[] { value });
+    }
+
+    private LoxVector pop()
+    {
+        if (size == 0)
+        {
+            throw new NativeError("Can't pop from an empty vector.");
+        }
+        if (size == 1)
+        {
+            return EMPTY;
+        }
+        if (size - tailOffset(size) > 1)
+        {
+            return new LoxVector(size - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+        }
+
+        // the tail empties, the last leaf of the trie becomes the tail
+        Object[] newTail = leaf(size - 2);
+        Object[] newRoot = popLeaf(shift, root);
+        int newShift = shift;
+        if (newRoot == null)
+        {
+            newRoot = EMPTY_NODE;
+        }
+        if (shift > BITS && newRoot[1] == null)
+        {
+            newRoot = (Object[])newRoot[0];
+            newShift -= BITS;
+        }
+        return new LoxVector(size - 1, newShift, newRoot, newTail);
+    }
+
+    private LoxVector concat(Object other)
+    {
+        if (!(other instanceof LoxVector))
+        {
+            throw new NativeError("Can only concatenate a vector to a vector.");
+        }
+
+        LoxVector vector = (LoxVector)other;
+        Object[] elements = new Object[size + vector.size];
+        for (int i = 0; i < size; i++)
+        {
+            elements[i] = get(i);
+        }
+        for (int i = 0; i < vector.size; i++)
+        {
+            elements[size + i] = vector.get(i);
+        }
+        return of(Arrays.asList(elements));
+    }
+
+    /**
+     * @param size The size of a vector
+     * @return the index of the first element in the tail
+     */
+    private static int tailOffset(int size)
+    {
+        return size == 0 ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    /**
+     * @param index An index in bounds
+     * @return the leaf holding the element
+     */
+    private Object[] leaf(int index)
+    {
+        if (index >= tailOffset(size))
+        {
+            return tail;
+        }
+
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS)
+        {
+            node = (Object[])node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    private static Object[] set(int level, Object[] node, int index, Object value)
+    {
+        Object[] copy = node.clone();
+        if (level == 0)
+        {
+            copy[index & MASK] = value;
+        }
+        else
+        {
+            int child = (index >>> level) & MASK;
+            copy[child] = set(level - BITS, (Object[])node[child], index, value);
+        }
+        return copy;
+    }
+
+    /**
+     * Copies the path to the position of a full tail in the trie
+     * @param level The level of the node
+     * @param node The node, copied with the leaf added under it
+     * @param leaf The former tail
+     * @return the copy
+     */
+    private Object[] pushLeaf(int level, Object[] node, Object[] leaf)
+    {
+        int child = ((size - 1) >>> level) & MASK;
+        Object[] copy = node.clone();
+        if (level == BITS)
+        {
+            copy[child] = leaf;
+        }
+        else
+        {
+            Object[] existing = (Object[])node[child];
+            copy[child] = existing == null ? path(level - BITS, leaf) : pushLeaf(level - BITS, existing, leaf);
+        }
+        return copy;
+    }
+
+    /**
+     * @return a chain of nodes from the level down to the leaf
+     */
+    private static Object[] path(int level, Object[] leaf)
+    {
+        if (level == 0)
+        {
+            return leaf;
+        }
+        Object[] node = new Object[WIDTH];
+        node[0] = path(level - BITS, leaf);
+        return node;
+    }
+
+    /**
+     * Copies the path to the last leaf of the trie without it
+     * @return the copy, null if nothing is left under the node
+     */
+    private Object[] popLeaf(int level, Object[] node)
+    {
+        int child = ((size - 2) >>> level) & MASK;
+        if (level > BITS)
+        {
+            Object[] newChild = popLeaf(level - BITS, (Object[])node[child]);
+            if (newChild == null && child == 0)
+            {
+                return null;
+            }
+            Object[] copy = node.clone();
+            copy[child] = newChild;
+            return copy;
+        }
+        if (child == 0)
+        {
+            return null;
+        }
+        Object[] copy = node.clone();
+        copy[child] = null;
+        return copy;
+    }
+
+    /**
+     * Checks an index argument
+     * @param index The argument
+     * @return the index as an int
+     */
+    private int index(Object index)
+    {
+        if (!(index instanceof Double) || (double)index != Math.floor((double)index))
+        {
+            throw new NativeError("Vector index must be an integer.");
+        }
+        double value = (double)index;
+        if (value < 0 || value >= size)
+        {
+            throw new NativeError("Vector index " + Interpreter.stringify(index) + " out of bounds for length " + size + ".");
+        }
+        return (int)value;
+    }
+
+    @Override
+    public LoxIterator iterator()
+    {
+        return new LoxIterator()
+        {
+            private int index = 0;
+            private Object[] leaf = null;
+
+            @Override
+            boolean hasNext(Interpreter interpreter)
+            {
+                return index < size;
+            }
+
+            @Override
+            Object next(Interpreter interpreter)
+            {
+                // one lookup per leaf instead of one per element
+                if ((index & MASK) == 0)
+                {
+                    leaf = leaf(index);
+                }
+                return leaf[index++ & MASK];
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        if (other == this)
+        {
+            return true;
+        }
+        if (!(other instanceof LoxVector) || ((LoxVector)other).size != size || other.hashCode() != hashCode())
+        {
+            return false;
+        }
+
+        LoxVector vector = (LoxVector)other;
+        for (int i = 0; i < size; i++)
+        {
+            if (!Interpreter.isEqual(get(i), vector.get(i)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = hash;
+        if (result == 0)
+        {
+            result = 1;
+            for (int i = 0; i < size; i++)
+            {
+                Object element = get(i);
+                result = 31 * result + (element == null ? 0 : element.hashCode());
+            }
+            hash = result;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < size; i++)
+        {
+            if (i > 0)
+            {
+                text.append(", ");
+            }
+            text.append(Interpreter.stringify(get(i)));
+        }
+        return text.append("]").toString();
+    }
+}
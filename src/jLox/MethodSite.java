@@ -0,0 +1,50 @@
+package jLox;
+
+/**
+ * Inline cache for a property access the ClassHierarchy found to be monomorphic,
+ * only one class declares a method with that name so the lookup for a class never changes
+ */
+class MethodSite
+{
+    final Stmt.Function declaration;
+    private Target target;
+
+    private static class Target
+    {
+        final LoxClass klass;
+        final LoxFunction method;
+
+        Target(LoxClass klass, LoxFunction method)
+        {
+            this.klass = klass;
+            this.method = method;
+        }
+    }
+
+    MethodSite(Stmt.Function declaration)
+    {
+        this.declaration = declaration;
+    }
+
+    /**
+     * Finds the method for instances of a class, reusing the last lookup when the class is the same
+     * @param klass The class of the instance, used as the guard
+     * @param name The method name
+     * @return The method, or null if the class does not have it
+     */
+    LoxFunction find(LoxClass klass, String name)
+    {
+        Target target = this.target;
+        if (target != null && target.klass == klass)
+        {
+            return target.method;
+        }
+
+        LoxFunction method = klass.findMethod(name);
+        if (method != null && method.declaration == declaration)
+        {
+            this.target = new Target(klass, method);
+        }
+        return method;
+    }
+}
@@ -0,0 +1,12 @@
+package jLox;
+
+/**
+ * Error thrown by native functions, the interpreter reports it at the line of the call
+ */
+class NativeError extends RuntimeException
+{
+    NativeError(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,148 @@
+package jLox;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Instance of a class implemented in Java. Its properties are the native methods of its class,
+ * it has no fields and none can be set
+ */
+abstract class NativeInstance extends LoxInstance
+{
+    NativeInstance(LoxClass klass)
+    {
+        super(klass);
+    }
+
+    /**
+     * Creates the class of a kind of native instance, it can't be called or subclassed from Lox
+     * @param name The class name
+     * @return the class
+     */
+    static LoxClass nativeClass(String name)
+    {
+        return new LoxClass(name, null, Collections.emptyMap());
+    }
+
+    /**
+     * Looks up a native method
+     * @param name The property name
+     * @return the method, null if the class has none with that name
+     */
+    abstract LoxCallable method(String name);
+
+    /**
+     * Creates a native method
+     * @param arity The number of arguments
+     * @param body Computes the result from the arguments, throws NativeError for invalid ones
+     * @return the method
+     */
+    static LoxCallable method(int arity, Function<List<Object>, Object> body)
+    {
+        return method(arity, (interpreter, arguments) -> body.apply(arguments));
+    }
+
+    /**
+     * Creates a native method that calls back into Lox
+     * @param arity The number of arguments
+     * @param body Computes the result from the calling interpreter context and the arguments
+     * @return the method
+     */
+    static LoxCallable method(int arity, BiFunction<Interpreter, List<Object>, Object> body)
+    {
+        return new LoxCallable()
+        {
+            @Override
+            public int arity()
+            {
+                return arity;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments)
+            {
+                return body.apply(interpreter, arguments);
+            }
+
+            @Override
+            public String toString()
+            {
+                return "<native fn>";
+            }
+        };
+    }
+
+    /**
+     * Makes a native method hold the lock of a collection while it runs, for collections tasks share
+     * @param lock The collection
+     * @param method The method, null if the collection has none with that name
+     * @return the locked method, null if there is none
+     */
+    static LoxCallable locked(Object lock, LoxCallable method)
+    {
+        if (method == null)
+        {
+            return null;
+        }
+        return new LoxCallable()
+        {
+            @Override
+            public int arity()
+            {
+                return method.arity();
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments)
+            {
+                synchronized (lock)
+                {
+                    return method.call(interpreter, arguments);
+                }
+            }
+
+            @Override
+            public String toString()
+            {
+                return "<native fn>";
+            }
+        };
+    }
+
+    @Override
+    Object get(String name, int line)
+    {
+        LoxCallable method = method(name);
+        if (method == null)
+        {
+            throw new RuntimeError(new Token(TokenType.IDENTIFIER, name, null, line), "Undefined property '" + name + "'.");
+        }
+        return method;
+    }
+
+    @Override
+    Object get(Token name, MethodSite site)
+    {
+        return get(name.lexeme(), name.line);
+    }
+
+    @Override
+    Object set(Token name, Object value)
+    {
+        throw new RuntimeError(name, "Can't set properties on " + klass.name + " instances.");
+    }
+
+    @Override
+    Object set(String name, Object value)
+    {
+        throw new NativeError("Can't set properties on " + klass.name + " instances.");
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<" + klass.name.toLowerCase() + ">";
+    }
+}
@@ -0,0 +1,791 @@
+package jLox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optimization pass run on the parsed tree, before the Resolver.
+ * Loop invariant code motion: compound expressions in the body of a while loop (and the desugared
+ * for loops) that only read locals of the enclosing function the loop never assigns or declares are
+ * replaced by Hoisted expressions, evaluated once per execution of the loop into a temporary declared
+ * in a block around it.
+ * Common subexpression elimination: compound expressions repeated inside the expression of a
+ * print, expression or return statement share one temporary.
+ * Both are conservative, loops with calls are left alone (a call can assign anything), and statements
+ * with assignments, calls or property writes are not touched by the elimination. Globals, properties
+ * and locals assigned by a nested function can change from another task while the loop runs, they
+ * are never hoisted, and neither is the loop condition, which a loop polling them relies on
+ */
+class Optimizer implements Stmt.Visitor<Stmt>
+{
+    private static final int MAX_COMMON_NODES = 200;
+
+    private int temporaries = 0;
+
+    // names declared in the blocks of the function being optimized, innermost last, empty at top level
+    private List<Set<String>> scopes = new ArrayList<>();
+    // names assigned by the functions nested in the function or top level block being optimized
+    private Set<String> closureAssignments = new HashSet<>();
+
+    /**
+     * Optimizes a parsed program
+     * @param statements The parsed statements
+     * @return the optimized statements, unchanged statements are the same objects
+     */
+    List<Stmt> optimize(List<Stmt> statements)
+    {
+        List<Stmt> optimized = null;
+
+        for (int i = 0; i < statements.size(); i++)
+        {
+            Stmt statement = statements.get(i);
+            Stmt result = optimize(statement);
+
+            if (result != statement && optimized == null)
+            {
+                optimized = new ArrayList<>(statements.subList(0, i));
+            }
+            if (optimized != null)
+            {
+                optimized.add(result);
+            }
+        }
+
+        return optimized == null ? statements : optimized;
+    }
+
+    private Stmt optimize(Stmt stmt)
+    {
+        if (stmt == null)
+        {
+            return null;
+        }
+        return stmt.accept(this);
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt)
+    {
+        Set<String> enclosingAssignments = closureAssignments;
+        if (scopes.isEmpty())
+        {
+            closureAssignments = closureAssignments(stmt.statements);
+        }
+        scopes.add(new HashSet<>());
+
+        List<Stmt> statements = optimize(stmt.statements);
+
+        scopes.remove(scopes.size() - 1);
+        closureAssignments = enclosingAssignments;
+        return statements == stmt.statements ? stmt : new Stmt.Block(statements);
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt)
+    {
+        declare(stmt.name);
+        List<Stmt.Function> methods = new ArrayList<>();
+        boolean changed = false;
+
+        for (Stmt.Function method : stmt.methods)
+        {
+            Stmt.Function result = optimizeFunction(method);
+            changed |= result != method;
+            methods.add(result);
+        }
+
+        return changed ? new Stmt.Class(stmt.name, stmt.superclass, methods) : stmt;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt)
+    {
+        return eliminateCommonSubexpressions(stmt, stmt.expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt)
+    {
+        declare(stmt.name);
+        return optimizeFunction(stmt);
+    }
+
+    /**
+     * Optimizes the body of a function or method, in scopes of its own
+     */
+    private Stmt.Function optimizeFunction(Stmt.Function function)
+    {
+        List<Set<String>> enclosingScopes = scopes;
+        Set<String> enclosingAssignments = closureAssignments;
+        scopes = new ArrayList<>();
+        Set<String> parameters = new HashSet<>();
+        for (Token param : function.params)
+        {
+            parameters.add(param.lexeme());
+        }
+        scopes.add(parameters);
+        closureAssignments = closureAssignments(function.body);
+
+        List<Stmt> body = optimize(function.body);
+
+        scopes = enclosingScopes;
+        closureAssignments = enclosingAssignments;
+        return body == function.body ? function : new Stmt.Function(function.name, function.params, body);
+    }
+
+    private void declare(Token name)
+    {
+        if (!scopes.isEmpty())
+        {
+            scopes.get(scopes.size() - 1).add(name.lexeme());
+        }
+    }
+
+    /**
+     * @param statements A function body or a top level block
+     * @return the names assigned inside the functions and classes nested in the statements
+     */
+    private static Set<String> closureAssignments(List<Stmt> statements)
+    {
+        Set<String> assigned = new HashSet<>();
+        new AstWalker()
+        {
+            private int depth = 0;
+
+            @Override
+            public Void visitFunctionStmt(Stmt.Function stmt)
+            {
+                depth++;
+                super.visitFunctionStmt(stmt);
+                depth--;
+                return null;
+            }
+
+            @Override
+            public Void visitClassStmt(Stmt.Class stmt)
+            {
+                depth++;
+                super.visitClassStmt(stmt);
+                depth--;
+                return null;
+            }
+
+            @Override
+            public Void visitAssignExpr(Expr.Assign expr)
+            {
+                if (depth > 0)
+                {
+                    assigned.add(expr.name.lexeme());
+                }
+                return super.visitAssignExpr(expr);
+            }
+        }.walk(statements);
+        return assigned;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt)
+    {
+        Stmt thenBranch = optimize(stmt.thenBranch);
+        Stmt elseBranch = optimize(stmt.elseBranch);
+
+        if (thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch)
+        {
+            return stmt;
+        }
+        return new Stmt.If(stmt.condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt)
+    {
+        return eliminateCommonSubexpressions(stmt, stmt.expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt)
+    {
+        if (stmt.value == null)
+        {
+            return stmt;
+        }
+        return eliminateCommonSubexpressions(stmt, stmt.value);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt)
+    {
+        Stmt body = optimize(stmt.body);
+        return hoistInvariants(body == stmt.body ? stmt : new Stmt.While(stmt.condition, body));
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt)
+    {
+        declare(stmt.name);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitExitStmt(Stmt.Exit stmt)
+    {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitYieldStmt(Stmt.Yield stmt)
+    {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitCloseStmt(Stmt.Close stmt)
+    {
+        Stmt body = optimize(stmt.body);
+        return body == stmt.body ? stmt : new Stmt.Close(stmt.iterator, body);
+    }
+
+    /**
+     * Moves the invariant compound expressions of a loop into temporaries of a block around it
+     * @param loop The loop, its body already optimized
+     * @return the loop, or a block declaring the temporaries followed by the rewritten loop
+     */
+    private Stmt hoistInvariants(Stmt.While loop)
+    {
+        LoopEffects effects = new LoopEffects();
+        effects.walk(loop);
+
+        if (effects.hasCall || scopes.isEmpty())
+        {
+            return loop;
+        }
+
+        // locals of this function no task can assign while the loop runs
+        Set<String> locals = new HashSet<>();
+        for (Set<String> scope : scopes)
+        {
+            locals.addAll(scope);
+        }
+        locals.removeAll(closureAssignments);
+        locals.removeAll(effects.assigned);
+        locals.removeAll(effects.declared);
+
+        Map<Expr, Token> invariants = new IdentityHashMap<>();
+        Map<String, Token> temporaries = new HashMap<>();
+
+        new AstWalker()
+        {
+            @Override
+            void walk(Expr expr)
+            {
+                if (expr != null && isCompound(expr) && isInvariant(expr, locals))
+                {
+                    invariants.put(expr, temporaries.computeIfAbsent(key(expr), k -> temporary()));
+                    return;
+                }
+                super.walk(expr);
+            }
+
+            @Override
+            public Void visitFunctionStmt(Stmt.Function stmt)
+            {
+                return null;
+            }
+
+            @Override
+            public Void visitClassStmt(Stmt.Class stmt)
+            {
+                return null;
+            }
+        }.walk(loop.body);
+
+        if (invariants.isEmpty())
+        {
+            return loop;
+        }
+
+        Substitution substitution = new Substitution(invariants);
+        Stmt rewritten = substitution.rewrite(loop);
+        return declareTemporaries(substitution.used, rewritten);
+    }
+
+    /**
+     * Shares one temporary between the repeated compound expressions of a statement
+     * @param stmt The print, expression or return statement
+     * @param expression The expression of the statement
+     * @return the statement, or a block declaring the temporaries followed by the rewritten statement
+     */
+    private Stmt eliminateCommonSubexpressions(Stmt stmt, Expr expression)
+    {
+        Map<Expr, String> keys = new IdentityHashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        boolean[] sideEffects = {false};
+
+        new AstWalker()
+        {
+            @Override
+            void walk(Expr expr)
+            {
+                super.walk(expr);
+                if (expr != null && isCompound(expr) && keys.size() < MAX_COMMON_NODES)
+                {
+                    String key = key(expr);
+                    keys.put(expr, key);
+                    counts.merge(key, 1, Integer::sum);
+                }
+            }
+
+            @Override
+            public Void visitAssignExpr(Expr.Assign expr)
+            {
+                sideEffects[0] = true;
+                return null;
+            }
+
+            @Override
+            public Void visitCallExpr(Expr.Call expr)
+            {
+                sideEffects[0] = true;
+                return null;
+            }
+
+            @Override
+            public Void visitSetExpr(Expr.Set expr)
+            {
+                sideEffects[0] = true;
+                return null;
+            }
+        }.walk(expression);
+
+        if (sideEffects[0] || keys.size() >= MAX_COMMON_NODES)
+        {
+            return stmt;
+        }
+
+        Map<String, Token> temporaries = new HashMap<>();
+        Map<Expr, Token> common = new IdentityHashMap<>();
+
+        keys.forEach((expr, key) -> {
+            if (counts.get(key) > 1)
+            {
+                common.put(expr, temporaries.computeIfAbsent(key, k -> temporary()));
+            }
+        });
+
+        if (common.isEmpty())
+        {
+            return stmt;
+        }
+
+        Substitution substitution = new Substitution(common);
+        Stmt rewritten = substitution.rewrite(stmt);
+        return declareTemporaries(substitution.used, rewritten);
+    }
+
+    private Stmt declareTemporaries(Set<Token> temporaries, Stmt stmt)
+    {
+        List<Stmt> statements = new ArrayList<>();
+
+        for (Token temporary : temporaries)
+        {
+            statements.add(new Stmt.Var(temporary, null));
+        }
+        statements.add(stmt);
+
+        return new Stmt.Block(statements);
+    }
+
+    private Token temporary()
+    {
+        return new Token(TokenType.IDENTIFIER, "$" + temporaries++, null, 0);
+    }
+
+    /**
+     * Only expressions that do some work are worth a temporary
+     */
+    private static boolean isCompound(Expr expr)
+    {
+        if (expr instanceof Expr.Grouping)
+        {
+            return isCompound(((Expr.Grouping)expr).expression);
+        }
+
+        return expr instanceof Expr.Binary || expr instanceof Expr.Unary || expr instanceof Expr.Logical
+                || expr instanceof Expr.Ternary || expr instanceof Expr.Get;
+    }
+
+    /**
+     * Checks if an expression has the same value on every iteration of a loop
+     * @param expr The expression inside the loop
+     * @param locals The locals nothing assigns while the loop runs
+     * @return Indicator of whether the expression can be evaluated once
+     */
+    private static boolean isInvariant(Expr expr, Set<String> locals)
+    {
+        if (expr instanceof Expr.Literal)
+        {
+            return true;
+        }
+        if (expr instanceof Expr.Variable)
+        {
+            return locals.contains(((Expr.Variable)expr).name.lexeme());
+        }
+        if (expr instanceof Expr.Grouping)
+        {
+            return isInvariant(((Expr.Grouping)expr).expression, locals);
+        }
+        if (expr instanceof Expr.Unary)
+        {
+            return isInvariant(((Expr.Unary)expr).right, locals);
+        }
+        if (expr instanceof Expr.Binary)
+        {
+            Expr.Binary binary = (Expr.Binary)expr;
+            return isInvariant(binary.left, locals) && isInvariant(binary.right, locals);
+        }
+        if (expr instanceof Expr.Logical)
+        {
+            Expr.Logical logical = (Expr.Logical)expr;
+            return isInvariant(logical.left, locals) && isInvariant(logical.right, locals);
+        }
+        if (expr instanceof Expr.Ternary)
+        {
+            Expr.Ternary ternary = (Expr.Ternary)expr;
+            return isInvariant(ternary.condition, locals) && isInvariant(ternary.ifTrue, locals)
+                    && isInvariant(ternary.ifFalse, locals);
+        }
+        return false;
+    }
+
+    /**
+     * Builds a text that is the same for structurally equal expressions
+     */
+    private static String key(Expr expr)
+    {
+        StringBuilder builder = new StringBuilder();
+        new AstWalker()
+        {
+            @Override
+            void walk(Expr expr)
+            {
+                builder.append('(').append(expr.getClass().getSimpleName());
+                super.walk(expr);
+                builder.append(')');
+            }
+
+            @Override
+            public Void visitBinaryExpr(Expr.Binary expr)
+            {
+                builder.append(' ').append(expr.operator.type);
+                return super.visitBinaryExpr(expr);
+            }
+
+            @Override
+            public Void visitLogicalExpr(Expr.Logical expr)
+            {
+                builder.append(' ').append(expr.operator.type);
+                return super.visitLogicalExpr(expr);
+            }
+
+            @Override
+            public Void visitUnaryExpr(Expr.Unary expr)
+            {
+                builder.append(' ').append(expr.operator.type);
+                return super.visitUnaryExpr(expr);
+            }
+
+            @Override
+            public Void visitGetExpr(Expr.Get expr)
+            {
+                builder.append(' ').append(expr.name.lexeme());
+                return super.visitGetExpr(expr);
+            }
+
+            @Override
+            public Void visitLiteralExpr(Expr.Literal expr)
+            {
+                Object value = expr.value;
+                builder.append(' ').append(value == null ? "nil" : value.getClass().getSimpleName() + ":" + value);
+                return null;
+            }
+
+            @Override
+            public Void visitVariableExpr(Expr.Variable expr)
+            {
+                builder.append(' ').append(expr.name.lexeme());
+                return null;
+            }
+        }.walk(expr);
+
+        return builder.toString();
+    }
+
+    /**
+     * Names assigned and declared inside a loop, and whether it calls.
+     * Nested function and class bodies are skipped, they only run through a call. A yield counts as a call
+     */
+    private static class LoopEffects extends AstWalker
+    {
+        final Set<String> assigned = new HashSet<>();
+        final Set<String> declared = new HashSet<>();
+        boolean hasCall = false;
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr)
+        {
+            assigned.add(expr.name.lexeme());
+            return super.visitAssignExpr(expr);
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr)
+        {
+            hasCall = true;
+            return super.visitCallExpr(expr);
+        }
+
+        @Override
+        public Void visitYieldStmt(Stmt.Yield stmt)
+        {
+            // the consumer runs while the generator is suspended, it can assign anything a call can
+            hasCall = true;
+            return super.visitYieldStmt(stmt);
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt)
+        {
+            declared.add(stmt.name.lexeme());
+            return super.visitVarStmt(stmt);
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt)
+        {
+            declared.add(stmt.name.lexeme());
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt)
+        {
+            declared.add(stmt.name.lexeme());
+            walk(stmt.superclass);
+            return null;
+        }
+    }
+
+    /**
+     * Rebuilds a statement replacing the given expressions with Hoisted expressions,
+     * outermost first. Nested function and class bodies are left alone
+     */
+    private static class Substitution implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt>
+    {
+        private final Map<Expr, Token> replacements;
+        final Set<Token> used = new LinkedHashSet<>();
+
+        Substitution(Map<Expr, Token> replacements)
+        {
+            this.replacements = replacements;
+        }
+
+        Stmt rewrite(Stmt stmt)
+        {
+            return stmt == null ? null : stmt.accept(this);
+        }
+
+        Expr rewrite(Expr expr)
+        {
+            if (expr == null)
+            {
+                return null;
+            }
+
+            Token temporary = replacements.get(expr);
+            if (temporary != null)
+            {
+                used.add(temporary);
+                return new Expr.Hoisted(temporary, expr);
+            }
+
+            return expr.accept(this);
+        }
+
+        private List<Stmt> rewrite(List<Stmt> statements)
+        {
+            List<Stmt> result = new ArrayList<>();
+            for (Stmt statement : statements)
+            {
+                result.add(rewrite(statement));
+            }
+            return result;
+        }
+
+        @Override
+        public Stmt visitBlockStmt(Stmt.Block stmt)
+        {
+            return new Stmt.Block(rewrite(stmt.statements));
+        }
+
+        @Override
+        public Stmt visitClassStmt(Stmt.Class stmt)
+        {
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitExpressionStmt(Stmt.Expression stmt)
+        {
+            return new Stmt.Expression(rewrite(stmt.expression));
+        }
+
+        @Override
+        public Stmt visitFunctionStmt(Stmt.Function stmt)
+        {
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitIfStmt(Stmt.If stmt)
+        {
+            return new Stmt.If(rewrite(stmt.condition), rewrite(stmt.thenBranch), rewrite(stmt.elseBranch));
+        }
+
+        @Override
+        public Stmt visitPrintStmt(Stmt.Print stmt)
+        {
+            return new Stmt.Print(rewrite(stmt.expression));
+        }
+
+        @Override
+        public Stmt visitReturnStmt(Stmt.Return stmt)
+        {
+            return new Stmt.Return(stmt.keyword, rewrite(stmt.value));
+        }
+
+        @Override
+        public Stmt visitWhileStmt(Stmt.While stmt)
+        {
+            return new Stmt.While(rewrite(stmt.condition), rewrite(stmt.body));
+        }
+
+        @Override
+        public Stmt visitVarStmt(Stmt.Var stmt)
+        {
+            return new Stmt.Var(stmt.name, rewrite(stmt.initializer));
+        }
+
+        @Override
+        public Stmt visitExitStmt(Stmt.Exit stmt)
+        {
+            return new Stmt.Exit(rewrite((Expr)stmt.value));
+        }
+
+        @Override
+        public Stmt visitYieldStmt(Stmt.Yield stmt)
+        {
+            return new Stmt.Yield(stmt.keyword, rewrite(stmt.value));
+        }
+
+        @Override
+        public Stmt visitCloseStmt(Stmt.Close stmt)
+        {
+            return new Stmt.Close(rewrite(stmt.iterator), rewrite(stmt.body));
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr)
+        {
+            return new Expr.Assign(expr.name, rewrite(expr.value));
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr)
+        {
+            return new Expr.Binary(rewrite(expr.left), expr.operator, rewrite(expr.right));
+        }
+
+        @Override
+        public Expr visitCallExpr(Expr.Call expr)
+        {
+            List<Expr> arguments = new ArrayList<>();
+            for (Expr argument : expr.arguments)
+            {
+                arguments.add(rewrite(argument));
+            }
+            return new Expr.Call(rewrite(expr.callee), expr.paren, arguments);
+        }
+
+        @Override
+        public Expr visitGetExpr(Expr.Get expr)
+        {
+            return new Expr.Get(rewrite(expr.object), expr.name);
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr)
+        {
+            return new Expr.Grouping(rewrite(expr.expression));
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal expr)
+        {
+            return expr;
+        }
+
+        @Override
+        public Expr visitLogicalExpr(Expr.Logical expr)
+        {
+            return new Expr.Logical(rewrite(expr.left), expr.operator, rewrite(expr.right));
+        }
+
+        @Override
+        public Expr visitSetExpr(Expr.Set expr)
+        {
+            return new Expr.Set(rewrite(expr.object), expr.name, rewrite(expr.value));
+        }
+
+        @Override
+        public Expr visitSuperExpr(Expr.Super expr)
+        {
+            return expr;
+        }
+
+        @Override
+        public Expr visitThisExpr(Expr.This expr)
+        {
+            return expr;
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr)
+        {
+            return new Expr.Unary(expr.operator, rewrite(expr.right));
+        }
+
+        @Override
+        public Expr visitTernaryExpr(Expr.Ternary expr)
+        {
+            return new Expr.Ternary(rewrite(expr.condition), rewrite(expr.ifTrue), rewrite(expr.ifFalse));
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr)
+        {
+            return expr;
+        }
+
+        @Override
+        public Expr visitHoistedExpr(Expr.Hoisted expr)
+        {
+            return expr;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package jLox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Calls a function with every integer of a range on the common fork join pool, created by
+ * parallelRange(start, end, fn) and parallelReduce(start, end, fn, combine). The range is split in
+ * halves until the pieces are small enough, each piece runs in its own forked interpreter context.
+ * When reducing, the results of the calls are combined in the order of the range, so the combining
+ * function only needs to be associative
+ */
+class ParallelRange extends RecursiveTask<Object>
+{
+    // pieces per worker thread, more pieces balance uneven calls at the cost of more contexts
+    private static final int PIECES_PER_WORKER = 4;
+
+    private final Interpreter parent;
+    private final LoxCallable function;
+    private final LoxCallable combine;
+    private final long start;
+    private final long end;
+    private final long piece;
+
+    private ParallelRange(Interpreter parent, LoxCallable function, LoxCallable combine, long start, long end, long piece)
+    {
+        this.parent = parent;
+        this.function = function;
+        this.combine = combine;
+        this.start = start;
+        this.end = end;
+        this.piece = piece;
+    }
+
+    /**
+     * Calls the function with every integer from start up to but not including end, waits for all the calls
+     * @param parent The context of the caller, forked for each piece of the range
+     * @param function The function taking the integer
+     * @param combine The function combining two results, null to discard them
+     * @param start The first integer
+     * @param end The integer after the last one
+     * @return the combined results, nil for an empty range or without a combining function
+     */
+    static Object run(Interpreter parent, LoxCallable function, LoxCallable combine, long start, long end)
+    {
+        if (start >= end)
+        {
+            return null;
+        }
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        long piece = Math.max(1, (end - start) / ((long)pool.getParallelism() * PIECES_PER_WORKER));
+        return pool.invoke(new ParallelRange(parent, function, combine, start, end, piece));
+    }
+
+    @Override
+    protected Object compute()
+    {
+        if (end - start <= piece)
+        {
+            return computePiece();
+        }
+
+        long middle = start + (end - start) / 2;
+        ParallelRange left = new ParallelRange(parent, function, combine, start, middle, piece);
+        ParallelRange right = new ParallelRange(parent, function, combine, middle, end, piece);
+
+        left.fork();
+        Object rightResult = right.compute();
+        Object leftResult = left.join();
+
+        if (combine == null)
+        {
+            return null;
+        }
+        return combine.call(parent.parallelContext(), Arrays.asList(leftResult, rightResult));
+    }
+
+    private Object computePiece()
+    {
+        Interpreter context = parent.parallelContext();
+        Object result = null;
+
+        for (long i = start; i < end; i++)
+        {
+            Object value = function.call(context, Collections.singletonList((double)i));
+
+            if (combine != null)
+            {
+                result = i == start ? value : combine.call(context, Arrays.asList(result, value));
+            }
+        }
+        return result;
+    }
+}
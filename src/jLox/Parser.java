@@ -2,23 +2,135 @@ package jLox;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import static jLox.TokenType.*;
 
-public class Parser
+class Parser
 {
     private static class ParseError extends RuntimeException {}
 
-    private final List<Token> tokens;
-    private int current = 0;
+    private interface PrefixRule
+    {
+        Expr parse(Parser parser, Token token);
+    }
+
+    private interface InfixRule
+    {
+        Expr parse(Parser parser, Expr left, Token operator);
+    }
+
+    // binding powers, from loosest to tightest, NONE ends an expression
+    private static final int NONE = 0,
+            ASSIGNMENT = 1,
+            OR = 2,
+            AND = 3,
+            TERNARY = 4,
+            EQUALITY = 5,
+            COMPARISON = 6,
+            TERM = 7,
+            FACTOR = 8,
+            UNARY = 9,
+            CALL = 10;
+
+    // rules for the token starting an expression and for the operator after one, by token type
+    private static final PrefixRule[] PREFIX_RULES = new PrefixRule[TokenType.values().length];
+    private static final InfixRule[] INFIX_RULES = new InfixRule[TokenType.values().length];
+    private static final int[] BINDING_POWERS = new int[TokenType.values().length];
+
+    static
+    {
+        prefix(FALSE, (parser, token) -> new Expr.Literal(false));
+        prefix(TRUE, (parser, token) -> new Expr.Literal(true));
+        prefix(NIL, (parser, token) -> new Expr.Literal(null));
+        prefix(NUMBER, (parser, token) -> new Expr.Literal(token.literal));
+        prefix(STRING, (parser, token) -> new Expr.Literal(token.literal));
+        prefix(SUPER, Parser::superAccess);
+        prefix(THIS, (parser, token) -> new Expr.This(token));
+        prefix(IDENTIFIER, (parser, token) -> new Expr.Variable(token));
+        prefix(LEFT_PAREN, Parser::grouping);
+        prefix(BANG, Parser::unary);
+        prefix(MINUS, Parser::unary);
+
+        infix(EQUAL, ASSIGNMENT, Parser::assignment);
+        infix(TokenType.OR, OR, Parser::logical);
+        infix(TokenType.AND, AND, Parser::logical);
+        infix(QUESTION, TERNARY, Parser::ternary);
+        infix(BANG_EQUAL, EQUALITY, Parser::binary);
+        infix(EQUAL_EQUAL, EQUALITY, Parser::binary);
+        infix(GREATER, COMPARISON, Parser::binary);
+        infix(GREATER_EQUAL, COMPARISON, Parser::binary);
+        infix(LESS, COMPARISON, Parser::binary);
+        infix(LESS_EQUAL, COMPARISON, Parser::binary);
+        infix(MINUS, TERM, Parser::binary);
+        infix(PLUS, TERM, Parser::binary);
+        infix(SLASH, FACTOR, Parser::binary);
+        infix(STAR, FACTOR, Parser::binary);
+        infix(LEFT_PAREN, CALL, Parser::finishCall);
+        infix(DOT, CALL, Parser::get);
+    }
+
+    private static void prefix(TokenType type, PrefixRule rule)
+    {
+        PREFIX_RULES[type.ordinal()] = rule;
+    }
+
+    private static void infix(TokenType type, int power, InfixRule rule)
+    {
+        INFIX_RULES[type.ordinal()] = rule;
+        BINDING_POWERS[type.ordinal()] = power;
+    }
+
+    private final TokenSource tokens;
+    private final ErrorReporter reporter;
+    private Token previous = null;
+    private Token next;
+    private int nesting = 0;
+    private Map<Stmt.Function, LazyBody> deferred = null;
+    private boolean checkDeferred = false;
+    // numbers the hidden iterator variables of for-in loops
+    private int iterators = 0;
 
     /**
      * Initializes instance of parser and list of tokens to parse
      * @param tokens List of tokens to parse
      */
     Parser(List<Token> tokens)
+    {
+        this(tokens.iterator()::next);
+    }
+
+    /**
+     * Initializes instance of parser and list of tokens to parse
+     * @param tokens List of tokens to parse
+     * @param reporter Receives the syntax errors
+     */
+    Parser(List<Token> tokens, ErrorReporter reporter)
+    {
+        this(tokens.iterator()::next, reporter);
+    }
+
+    /**
+     * Initializes instance of parser pulling its tokens from a source as it goes,
+     * only the current and previous tokens are kept
+     * @param tokens The source of the tokens, usually the scanner
+     */
+    Parser(TokenSource tokens)
+    {
+        this(tokens, new ErrorReporter(System.err));
+    }
+
+    /**
+     * Initializes instance of parser pulling its tokens from a source as it goes
+     * @param tokens The source of the tokens, usually the scanner
+     * @param reporter Receives the syntax errors
+     */
+    Parser(TokenSource tokens, ErrorReporter reporter)
     {
         this.tokens = tokens;
+        this.reporter = reporter;
+        this.next = tokens.nextToken();
     }
 
     /**
@@ -29,22 +141,62 @@ public class Parser
     {
         List<Stmt> statements = new ArrayList<>();
 
-        while (!isAtEnd())
+        while (hasNext())
         {
-            statements.add(declaration());
+            statements.add(parseNext());
         }
 
         return statements;
     }
 
     /**
-     * Begins the chain of expressions parsing attempts
-     * by calling the assignment expression
+     * Makes the parser only match the braces of top level function bodies, their tokens are kept to
+     * be parsed on the first call. Checked bodies are parsed right away so syntax errors are still
+     * reported before execution, only their resolution is deferred
+     * @param check Indicator of whether deferred bodies are parsed now
+     */
+    void deferFunctionBodies(boolean check)
+    {
+        deferred = new HashMap<>();
+        checkDeferred = check;
+    }
+
+    /**
+     * Takes the deferred bodies of the functions parsed since the last call
+     * @return the bodies by declaration
+     */
+    Map<Stmt.Function, LazyBody> takeDeferred()
+    {
+        Map<Stmt.Function, LazyBody> bodies = deferred;
+        deferred = new HashMap<>();
+        return bodies;
+    }
+
+    /**
+     * Checks if there are declarations left to parse
+     * @return Indicator of whether the tokens are not exhausted
+     */
+    boolean hasNext()
+    {
+        return !isAtEnd();
+    }
+
+    /**
+     * Parses only the next top level declaration, to run a program one declaration at a time
+     * @return the statement, null if it had a parse error
+     */
+    Stmt parseNext()
+    {
+        return declaration();
+    }
+
+    /**
+     * Parses a whole expression, starting at the loosest binding operator, assignment
      * @return the next expression object that can be parsed
      */
     private Expr expression()
     {
-        return assignment();
+        return expression(ASSIGNMENT);
     }
 
     /**
@@ -126,6 +278,8 @@ public class Parser
             return whileStatement();
         if (match(EXIT))
             return exitStatement();
+        if (match(YIELD))
+            return yieldStatement();
         if (match(LEFT_BRACE))
             return new Stmt.Block(block());
 
@@ -143,7 +297,24 @@ public class Parser
         }
         else if(match(VAR))
         {
-            initializer = varDeclaration();
+            Token name = consume(IDENTIFIER, "Expect variable name.");
+            if (checkIn())
+            {
+                return forInStatement(name);
+            }
+            initializer = varDeclaration(name);
+        }
+        else if (check(IDENTIFIER))
+        {
+            // the name is either the loop variable of a for-in or starts the initializer expression
+            Token name = advance();
+            if (checkIn())
+            {
+                return forInStatement(name);
+            }
+            Expr expr = infixes(new Expr.Variable(name), ASSIGNMENT);
+            consume(SEMICOLON, "Expect ';' after expression");
+            initializer = new Stmt.Expression(expr);
         }
         else
         {
@@ -186,6 +357,45 @@ public class Parser
         return body;
     }
 
+    /**
+     * Parses the rest of a for-in loop, after its variable, into a block walking an iterator:
+     * {@code { var $iter0 = $iterator(iterable); while ($iter0.hasNext()) { var x = $iter0.next(); body } }},
+     * the loop is wrapped in a close statement calling $iter0.close() when it is left before the end.
+     * The loop variable is declared anew in every iteration, with or without var
+     * @param name The loop variable
+     * @return the block statement
+     */
+    private Stmt forInStatement(Token name)
+    {
+        advance();
+        Expr iterable = expression();
+        consume(RIGHT_PAREN, "expect ')' after for clauses");
+        Stmt body = statement();
+
+        // the $ names can't be written in source, user variables neither clash with nor shadow them
+        Token iterator = new Token(IDENTIFIER, "$iter" + iterators++, null, name.line);
+        Token open = new Token(LEFT_PAREN, "(", null, name.line);
+        Expr.Call create = new Expr.Call(new Expr.Variable(new Token(IDENTIFIER, "$iterator", null, name.line)),
+                open, Arrays.asList(iterable));
+        Expr hasNext = new Expr.Call(new Expr.Get(new Expr.Variable(iterator),
+                new Token(IDENTIFIER, "hasNext", null, name.line)), open, new ArrayList<>());
+        Expr next = new Expr.Call(new Expr.Get(new Expr.Variable(iterator),
+                new Token(IDENTIFIER, "next", null, name.line)), open, new ArrayList<>());
+
+        Stmt loop = new Stmt.While(hasNext, new Stmt.Block(Arrays.asList(new Stmt.Var(name, next), body)));
+        return new Stmt.Block(Arrays.asList(new Stmt.Var(iterator, create),
+                new Stmt.Close(new Expr.Variable(iterator), loop)));
+    }
+
+    /**
+     * @return indicator of whether the next token is the name in, which only means something after
+     * the variable of a for loop
+     */
+    private boolean checkIn()
+    {
+        return check(IDENTIFIER) && peek().lexeme().equals("in");
+    }
+
     private Stmt ifStatement()
     {
             consume(LEFT_PAREN, "Expect '(' after 'if'.");
@@ -231,10 +441,25 @@ public class Parser
         return new Stmt.Exit(value);
     }
 
+    private Stmt yieldStatement()
+    {
+        Token keyword = previous();
+        Expr value = null;
+        if (!check(SEMICOLON))
+        {
+            value = expression();
+        }
+        consume(SEMICOLON, "Expect ';' after yield value.");
+        return new Stmt.Yield(keyword, value);
+    }
+
     private Stmt varDeclaration()
     {
-        Token name = consume(IDENTIFIER, "Expect variable name.");
+        return varDeclaration(consume(IDENTIFIER, "Expect variable name."));
+    }
 
+    private Stmt varDeclaration(Token name)
+    {
         Expr initializer = null;
         if (match(EQUAL))
         {
@@ -288,174 +513,180 @@ public class Parser
         }
         consume(RIGHT_PAREN, "Expect ')' after parameters.");
         consume(LEFT_BRACE, "Expect '{' before " + kind.toString().toLowerCase() + " body.");
-        List<Stmt> body = block();
-
-        return new Stmt.Function(name, parameters, body);
-    }
-
-    private List<Stmt> block()
-    {
-        List<Stmt> statements = new ArrayList<>();
 
-        while(!check(RIGHT_BRACE) && !isAtEnd())
+        if (deferred != null && kind == CallableType.FUNCTION && nesting == 0)
         {
-            statements.add(declaration());
+            return deferredFunction(name, parameters);
         }
 
-        consume(RIGHT_BRACE, "Expect '}' after block;");
-        return statements;
+        List<Stmt> body = block();
+
+        return new Stmt.Function(name, parameters, body);
     }
 
     /**
-     * Attempts to parse an assignment (variable or field) out of next tokens
-     * gets lower order expression and looks for = Token indicating an assignment
-     * If the lower expression is a Variable name, creates Assign expression
-     * If it is a property getter, creates Set (object is instance, name and value)
-     * @return the parsed expression node
+     * Creates a function whose body stays empty until it is materialized from its deferred body,
+     * the opening brace is already consumed
+     * @param name The function name
+     * @param parameters The parameter names
+     * @return the function statement
      */
-    private Expr assignment()
+    private Stmt.Function deferredFunction(Token name, List<Token> parameters)
     {
-        Expr expr = or();
+        Stmt.Function function = new Stmt.Function(name, parameters, new ArrayList<>());
 
-        if (match(EQUAL))
+        if (checkDeferred)
         {
-            Token equals = previous();
-            Expr value = assignment();
+            deferred.put(function, LazyBody.parsed(block()));
+            return function;
+        }
+
+        List<Token> body = new ArrayList<>();
+        int depth = 1;
 
-            if (expr instanceof Expr.Variable)
+        while (!isAtEnd())
+        {
+            Token token = advance();
+            if (token.type == LEFT_BRACE)
             {
-                Token name = ((Expr.Variable)expr).name;
-                return new Expr.Assign(name, value);
+                depth++;
             }
-            else if (expr instanceof Expr.Get)
+            else if (token.type == RIGHT_BRACE && --depth == 0)
             {
-                Expr.Get get = (Expr.Get)expr;
-                return new Expr.Set(get.object, get.name, value);
+                break;
             }
-
-            error(equals, "Invalid assignment target.");
+            body.add(token);
         }
 
-        return expr;
-    }
-
-    private Expr or()
-    {
-        Expr expr = and();
-
-        while (match(OR))
+        if (depth != 0)
         {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
+            throw error(peek(), "Expect '}' after block;");
         }
 
-        return expr;
+        body.add(new Token(EOF, "", null, previous().line));
+        deferred.put(function, LazyBody.skipped(body));
+        return function;
     }
 
-    private Expr and()
+    private List<Stmt> block()
     {
-        Expr expr = ternary();
+        List<Stmt> statements = new ArrayList<>();
+        nesting++;
 
-        while (match(AND))
+        try
         {
-            Token operator = previous();
-            Expr right = ternary();
-            expr = new Expr.Logical(expr, operator, right);
-        }
+            while(!check(RIGHT_BRACE) && !isAtEnd())
+            {
+                statements.add(declaration());
+            }
 
-        return expr;
+            consume(RIGHT_BRACE, "Expect '}' after block;");
+        }
+        finally
+        {
+            nesting--;
+        }
+        return statements;
     }
 
-    private Expr ternary()
+    /**
+     * Parses an expression whose operators all bind at least as tightly as the given power.
+     * The token starting the expression picks a prefix rule, then as long as the next token is an
+     * operator binding tightly enough its infix rule extends the expression with it
+     * @param power The minimum binding power of the operators to take
+     * @return the parsed expression node
+     */
+    private Expr expression(int power)
     {
-        Expr expr = equality();
+        Token token = peek();
+        PrefixRule prefix = PREFIX_RULES[token.type.ordinal()];
 
-        if (match(QUESTION))
+        if (prefix == null)
         {
-            Expr conditional = expr;
-            Expr ifTrue = expression();
-            consume(COLON, "Expecting : ");
-            Expr ifFalse = expression();
-            expr = new Expr.Ternary(conditional, ifTrue, ifFalse);
+            throw error(token, "Expect expression");
         }
 
-        return expr;
+        advance();
+        return infixes(prefix.parse(this, token), power);
     }
 
-    private Expr equality()
+    /**
+     * Extends a parsed operand with the operators following it
+     * @param expr The operand
+     * @param power The minimum binding power of the operators to take
+     * @return the parsed expression node
+     */
+    private Expr infixes(Expr expr, int power)
     {
-        Expr expr = comparison();
-        while (match(BANG_EQUAL, EQUAL_EQUAL))
+        while (BINDING_POWERS[peek().type.ordinal()] >= power)
         {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
+            Token operator = advance();
+            expr = INFIX_RULES[operator.type.ordinal()].parse(this, expr, operator);
         }
 
         return expr;
     }
 
-    private Expr comparison()
+    /**
+     * Parses the value of an assignment (variable or field), assignments are right associative.
+     * If the target is a Variable name, creates Assign expression
+     * If it is a property getter, creates Set (object is instance, name and value)
+     * @return the parsed expression node
+     */
+    private Expr assignment(Expr target, Token equals)
     {
-        Expr expr = term();
+        Expr value = expression(ASSIGNMENT);
 
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL))
+        if (target instanceof Expr.Variable)
         {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
+            Token name = ((Expr.Variable)target).name;
+            return new Expr.Assign(name, value);
         }
-
-        return expr;
-    }
-
-    private Expr term()
-    {
-        Expr expr = factor();
-
-        while (match(MINUS,PLUS))
+        else if (target instanceof Expr.Get)
         {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
+            Expr.Get get = (Expr.Get)target;
+            return new Expr.Set(get.object, get.name, value);
         }
 
-        return expr;
+        error(equals, "Invalid assignment target.");
+        return target;
     }
 
-    private Expr factor()
+    private Expr logical(Expr left, Token operator)
     {
-        Expr expr = unary();
-
-        while (match(SLASH,STAR))
-        {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
+        Expr right = expression(BINDING_POWERS[operator.type.ordinal()] + 1);
+        return new Expr.Logical(left, operator, right);
+    }
 
-        return expr;
+    /**
+     * The condition of a ternary is an equality, both branches are whole expressions
+     */
+    private Expr ternary(Expr conditional, Token question)
+    {
+        Expr ifTrue = expression();
+        consume(COLON, "Expecting : ");
+        Expr ifFalse = expression();
+        return new Expr.Ternary(conditional, ifTrue, ifFalse);
     }
 
-    private Expr unary()
+    private Expr binary(Expr left, Token operator)
     {
-        if (match(BANG, MINUS))
-        {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
-        }
+        Expr right = expression(BINDING_POWERS[operator.type.ordinal()] + 1);
+        return new Expr.Binary(left, operator, right);
+    }
 
-        return call();
+    private Expr unary(Token operator)
+    {
+        Expr right = expression(UNARY);
+        return new Expr.Unary(operator, right);
     }
 
     /**
-     * Finishes a call,
-     * @param callee
-     * @return
+     * Finishes a call, the opening paren is already consumed
+     * @param callee The called expression
+     * @return the call expression
      */
-    private Expr finishCall(Expr callee)
+    private Expr finishCall(Expr callee, Token open)
     {
         List<Expr> arguments = new ArrayList<>();
 
@@ -478,87 +709,38 @@ public class Parser
         return new Expr.Call(callee, paren, arguments);
     }
 
-    /**
-     * attempts to parse call (function or method)
-     * primary will find a literal value, identifier, or grouping
-     * If the next token is ( or ., if finishes the call parse
-     * for a function (finishCall()) or property (create GET expression)
-     * Otherwise, not a call and kicks it back up the chain
-     * @return the parsed node
-     */
-    private Expr call()
+    private Expr get(Expr object, Token dot)
     {
-        Expr expr = primary();
-
-        while (true)
-        {
-            if (match(LEFT_PAREN))
-            {
-                expr = finishCall(expr);
-            }
-            else if (match(DOT))
-            {
-                Token name = consume(IDENTIFIER, "Expect property name after '.'");
-                expr = new Expr.Get(expr, name);
-            }
-            else
-            {
-                break;
-            }
-        }
-
-        return expr;
+        Token name = consume(IDENTIFIER, "Expect property name after '.'");
+        return new Expr.Get(object, name);
     }
 
-    /**
-     * Parses a primary token by matching reserved values, literals, identifiers, or (
-     * a ( will trigger another parse beginning back expression() after the (
-     * @return the parsed expression
-     */
-    private Expr primary()
+    private Expr superAccess(Token keyword)
     {
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(NIL)) return new Expr.Literal(null);
-
-        if (match(NUMBER, STRING)) return new Expr.Literal(previous().literal);
-
-        if (match(SUPER))
-        {
-            Token keyword = previous();
-            consume(DOT, "Expect '.' after 'super'.");
-            Token method = consume(IDENTIFIER, "Expect superclass method name.");
-            return new Expr.Super(keyword, method);
-        }
-        if (match(THIS)) return new Expr.This(previous());
-        if (match(IDENTIFIER))
-            return new Expr.Variable(previous());
-
-        if (match(LEFT_PAREN))
-        {
-            Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
-        }
+        consume(DOT, "Expect '.' after 'super'.");
+        Token method = consume(IDENTIFIER, "Expect superclass method name.");
+        return new Expr.Super(keyword, method);
+    }
 
-        throw error(peek(), "Expect expression");
+    private Expr grouping(Token paren)
+    {
+        Expr expr = expression();
+        consume(RIGHT_PAREN, "Expect ')' after expression.");
+        return new Expr.Grouping(expr);
     }
 
     /**
-     * Checks to see if the next token is of one of the provided types
+     * Checks to see if the next token is of the provided type
      * If it is a match, the token is consumed
-     * @param types The types to check
-     * @return An indicator of whether the token is of the provided types
+     * @param type The type to check
+     * @return An indicator of whether the token is of the provided type
      */
-    private boolean match(TokenType... types)
+    private boolean match(TokenType type)
     {
-        for (TokenType type : types)
+        if (check(type))
         {
-            if (check(type))
-            {
-                advance();
-                return true;
-            }
+            advance();
+            return true;
         }
 
         return false;
@@ -604,7 +786,8 @@ public class Parser
     {
         if (!isAtEnd())
         {
-            current++;
+            previous = next;
+            next = tokens.nextToken();
         }
         return previous();
     }
@@ -624,7 +807,7 @@ public class Parser
      */
     private Token peek()
     {
-        return tokens.get(current);
+        return next;
     }
 
     /**
@@ -633,12 +816,12 @@ public class Parser
      */
     private Token previous()
     {
-        return tokens.get(current - 1);
+        return previous;
     }
 
     private ParseError error(Token token, String message)
     {
-        Lox.error(token, message);
+        reporter.error(token, message);
         return new ParseError();
     }
 
@@ -663,6 +846,7 @@ public class Parser
                 case RETURN:
                 case WHILE:
                 case EXIT:
+                case YIELD:
                     return;
             }
 
@@ -0,0 +1,79 @@
+package jLox;
+
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * A program compiled into an Arena. Nothing writes to the arena once it is encoded, so one program
+ * can be run any number of times, including by interpreters on different threads at the same time,
+ * each with its own globals and output
+ */
+public final class Program
+{
+    final Arena arena;
+    final int statements;
+
+    /**
+     * @param arena The arena holding the program
+     * @param statements The offset of the top level statement list
+     */
+    Program(Arena arena, int statements)
+    {
+        this.arena = arena;
+        this.statements = statements;
+    }
+
+    /**
+     * Scans, parses, optimizes and resolves a program and encodes it in a new arena
+     * @param source The source code
+     * @param reporter Receives the syntax and resolution errors
+     * @return the program, null if it has errors
+     */
+    public static Program compile(CharSequence source, ErrorReporter reporter)
+    {
+        List<Stmt> statements = new Parser(new Scanner(source, reporter), reporter).parse();
+        if (reporter.hadError())
+        {
+            return null;
+        }
+
+        statements = new Optimizer().optimize(statements);
+
+        // only holds the resolution of the trees while they are encoded
+        Interpreter resolution = new Interpreter(System.out, reporter);
+        Resolver resolver = new Resolver(resolution);
+        resolver.resolve(statements);
+        resolver.markPureFunctions();
+        if (reporter.hadError())
+        {
+            return null;
+        }
+
+        Arena arena = new Arena();
+        return new Program(arena, new ArenaBuilder(resolution, arena).encode(statements));
+    }
+
+    /**
+     * Runs the program in a new interpreter context with its own globals
+     * @param out The stream print statements write to
+     * @param reporter Receives the runtime errors
+     * @return the status of the exit statement that ended the program, 0 if it ran to its end
+     */
+    public int run(PrintStream out, ErrorReporter reporter)
+    {
+        return run(out, reporter, false);
+    }
+
+    /**
+     * Runs the program in a new interpreter context, optionally in thread safe mode: globals, closures
+     * and instance fields then live in concurrent maps, so tasks spawned by the program can share them
+     * @param out The stream print statements write to
+     * @param reporter Receives the runtime errors
+     * @param threadSafe Indicator of whether the program's tasks may write shared variables and fields
+     * @return the status of the exit statement that ended the program, 0 if it ran to its end
+     */
+    public int run(PrintStream out, ErrorReporter reporter, boolean threadSafe)
+    {
+        return new Interpreter(out, reporter, threadSafe).run(this);
+    }
+}
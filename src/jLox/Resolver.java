@@ -1,8 +1,12 @@
 package jLox;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
 
@@ -11,16 +15,50 @@ import java.util.Stack;
  * Visitor methods walk the AST tree defining scope at blocks, until variables or functions are used
  * names and distance in environment tree are sent to interpreter for lookup
  */
-public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
 {
     private final Interpreter interpreter;
+    private final ErrorReporter reporter;
     private final Stack<Map<String, Flags>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
+    private Stmt.Function currentDeclaration = null;
+    private final Stack<Purity> functions = new Stack<>();
+    private final Map<Stmt.Function, Purity> purities = new LinkedHashMap<>();
+    // functions marked pure, with the globals they read
+    private final Map<Stmt.Function, Set<String>> pureFunctions = new HashMap<>();
+    private final Map<String, Stmt.Function> topLevelFunctions = new HashMap<>();
+    private final Set<String> declaredGlobals = new HashSet<>();
+    private final Set<String> redeclaredGlobals = new HashSet<>();
+    private final Set<String> assignedGlobals = new HashSet<>();
+    // size of redeclaredGlobals and assignedGlobals when the pure functions were last checked
+    private int globalChanges = 0;
+    private final Map<Stmt.Function, Token> outerAssignments = new HashMap<>();
+    private final Set<Stmt.Function> parallelFunctions = new HashSet<>();
+    private final Set<String> parallelGlobals = new HashSet<>();
+
+    /**
+     * Side effects found in a function body. A function stays pure if it only reads and assigns
+     * its own locals and calls pure top level functions through globals that are never assigned
+     */
+    private static class Purity
+    {
+        final int scope;
+        boolean pure = true;
+        final Set<String> globals = new HashSet<>();
+        // first assignment to a variable declared outside the function
+        Token outerAssignment = null;
+
+        Purity(int scope)
+        {
+            this.scope = scope;
+        }
+    }
 
     private class Flags
     {
         public Boolean assigned = false;
         public Boolean used = false;
+        public Stmt.Function function = null;
 
         Flags() {}
 
@@ -34,6 +72,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
     Resolver(Interpreter interpreter)
     {
         this.interpreter = interpreter;
+        this.reporter = interpreter.reporter;
     }
 
     private enum FunctionType
@@ -68,12 +107,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
+        impure();
+        declareGlobal(stmt.name);
         declare(stmt.name);
         define(stmt.name);
 
-        if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme))
+        if (stmt.superclass != null && stmt.name.lexeme().equals(stmt.superclass.name.lexeme()))
         {
-            Lox.error(stmt.superclass.name, "A class can;t inherit from itself, dum dum.");
+            reporter.error(stmt.superclass.name, "A class can;t inherit from itself, dum dum.");
         }
 
         if (stmt.superclass != null)
@@ -94,7 +135,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
         for (Stmt.Function method : stmt.methods)
         {
             FunctionType declaration = FunctionType.METHOD;
-            if (method.name.lexeme.equals("init"))
+            if (method.name.lexeme().equals("init"))
             {
                 declaration = FunctionType.INITIALIZER;
             }
@@ -122,6 +163,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
     @Override
     public Void visitVarStmt(Stmt.Var stmt)
     {
+        declareGlobal(stmt.name);
         declare(stmt.name);
         if (stmt.initializer != null)
         {
@@ -135,9 +177,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
     @Override
     public Void visitVariableExpr(Expr.Variable expr)
     {
-        if (!scopes.isEmpty() && scopes.peek().containsKey(expr.name.lexeme) && scopes.peek().get(expr.name.lexeme).assigned == Boolean.FALSE)
+        if (!scopes.isEmpty() && scopes.peek().containsKey(expr.name.lexeme()) && scopes.peek().get(expr.name.lexeme()).assigned == Boolean.FALSE)
         {
-            Lox.error(expr.name, "Can't read local variable in its own initializer.");
+            reporter.error(expr.name, "Can't read local variable in its own initializer.");
         }
 
         resolveLocal(expr, expr.name);
@@ -156,12 +198,44 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt)
     {
+        impure();
+        if (scopes.isEmpty())
+        {
+            declareGlobal(stmt.name);
+            topLevelFunctions.put(stmt.name.lexeme(), stmt);
+            if (parallelGlobals.remove(stmt.name.lexeme()))
+            {
+                parallelFunctions.add(stmt);
+            }
+        }
         declare(stmt.name);
         define(stmt.name);
+        if (!scopes.isEmpty())
+        {
+            scopes.peek().get(stmt.name.lexeme()).function = stmt;
+        }
+
+        LazyBody body = interpreter.deferredBody(stmt);
+        if (body != null)
+        {
+            assignedGlobals.addAll(body.assignedNames);
+            return null;
+        }
+
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
     }
 
+    /**
+     * Resolves the body of a top level function materialized after the rest of the program was resolved
+     * @param function The declaration
+     * @param body The statements of its body, kept apart from the declaration
+     */
+    void resolveBody(Stmt.Function function, List<Stmt> body)
+    {
+        resolveFunction(function, body, FunctionType.FUNCTION);
+    }
+
     @Override
     public Void visitIfStmt(Stmt.If stmt)
     {
@@ -178,6 +252,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
     @Override
     public Void visitPrintStmt(Stmt.Print stmt)
     {
+        impure();
         resolve(stmt.expression);
         return null;
     }
@@ -187,19 +262,43 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
     {
         if (currentFunction == FunctionType.NONE)
         {
-            Lox.error(stmt.keyword, "Can't return from top-level code, dick.");
+            reporter.error(stmt.keyword, "Can't return from top-level code, dick.");
         }
         if (stmt.value != null)
         {
             if (currentFunction == FunctionType.INITIALIZER)
             {
-                Lox.error(stmt.keyword, "Can't return a value from an initializer");
+                reporter.error(stmt.keyword, "Can't return a value from an initializer");
             }
             resolve(stmt.value);
         }
         return null;
     }
 
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt)
+    {
+        if (currentFunction == FunctionType.NONE)
+        {
+            reporter.error(stmt.keyword, "Can't yield from top-level code.");
+        }
+        else if (currentFunction == FunctionType.INITIALIZER)
+        {
+            reporter.error(stmt.keyword, "Can't yield from an initializer.");
+        }
+        else
+        {
+            // every call returns a new generator, the function can't be pure
+            functions.peek().pure = false;
+            interpreter.markGenerator(currentDeclaration);
+        }
+        if (stmt.value != null)
+        {
+            resolve(stmt.value);
+        }
+        return null;
+    }
+
     @Override
     public Void visitWhileStmt(Stmt.While stmt)
     {
@@ -208,6 +307,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
         return null;
     }
 
+    @Override
+    public Void visitCloseStmt(Stmt.Close stmt)
+    {
+        resolve(stmt.iterator);
+        resolve(stmt.body);
+        return null;
+    }
+
     @Override
     public Void visitBinaryExpr(Expr.Binary expr)
     {
@@ -221,17 +328,103 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
     {
         resolve(expr.callee);
 
+        if (expr.callee instanceof Expr.Variable && interpreter.isGlobal(expr.callee))
+        {
+            interpreter.globalCall(expr);
+        }
+        else
+        {
+            impure();
+        }
+
         for (Expr argument : expr.arguments)
         {
             resolve(argument);
         }
 
+        if (expr.callee instanceof Expr.Variable && interpreter.isGlobal(expr.callee))
+        {
+            String name = ((Expr.Variable)expr.callee).name.lexeme();
+            if (name.equals("parallelRange") && expr.arguments.size() == 3)
+            {
+                parallel(expr.arguments.get(2));
+            }
+            else if (name.equals("parallelReduce") && expr.arguments.size() == 4)
+            {
+                parallel(expr.arguments.get(2));
+                parallel(expr.arguments.get(3));
+            }
+        }
+
         return null;
     }
 
+    /**
+     * Checks a function passed to parallelRange or parallelReduce, its calls run at the same time on
+     * several threads so it can't assign variables declared outside it. Only functions named directly
+     * are checked, a top level function declared further down is checked once it is resolved
+     * @param argument The function argument
+     */
+    private void parallel(Expr argument)
+    {
+        if (!(argument instanceof Expr.Variable))
+        {
+            return;
+        }
+
+        String name = ((Expr.Variable)argument).name.lexeme();
+        Stmt.Function function = null;
+
+        for (int i = scopes.size() - 1; i >= 0 && function == null; i--)
+        {
+            Flags flags = scopes.get(i).get(name);
+            if (flags != null)
+            {
+                if (flags.function == null)
+                {
+                    return;
+                }
+                function = flags.function;
+            }
+        }
+        if (function == null && !redeclaredGlobals.contains(name))
+        {
+            function = topLevelFunctions.get(name);
+            if (function == null)
+            {
+                parallelGlobals.add(name);
+                return;
+            }
+        }
+        if (function == null)
+        {
+            return;
+        }
+
+        if (outerAssignments.containsKey(function))
+        {
+            checkParallel(function);
+        }
+        else
+        {
+            parallelFunctions.add(function);
+        }
+    }
+
+    private void checkParallel(Stmt.Function function)
+    {
+        Token assignment = outerAssignments.get(function);
+        if (assignment != null)
+        {
+            reporter.error(assignment, "Function '" + function.name.lexeme()
+                    + "' runs in parallel, it can't assign '" + assignment.lexeme() + "' declared outside it.");
+        }
+    }
+
     @Override
     public Void visitGetExpr(Expr.Get expr)
     {
+        impure();
         resolve(expr.object);
         return null;
     }
@@ -259,6 +452,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
 
     @Override public Void visitSetExpr(Expr.Set expr)
     {
+        impure();
         resolve(expr.value);
         resolve(expr.object);
         return null;
@@ -267,9 +461,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
     @Override
     public Void visitSuperExpr(Expr.Super expr)
     {
+        impure();
         if (currentClass != ClassType.SUBCLASS)
         {
-            Lox.error(expr.keyword, "super only works in subclasses, clown.");
+            reporter.error(expr.keyword, "super only works in subclasses, clown.");
         }
 
         resolveLocal(expr, expr.keyword);
@@ -279,9 +474,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
     @Override
     public Void visitThisExpr(Expr.This expr)
     {
+        impure();
         if (currentClass == ClassType.NONE)
         {
-            Lox.error(expr.keyword, "Can't use 'this' outside of a class, and you're like school in summertime, no class.");
+            reporter.error(expr.keyword, "Can't use 'this' outside of a class, and you're like school in summertime, no class.");
             return null;
         }
 
@@ -305,9 +501,18 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
         return null;
     }
 
+    @Override
+    public Void visitHoistedExpr(Expr.Hoisted expr)
+    {
+        resolve(expr.expression);
+        resolveLocal(expr, expr.name);
+        return null;
+    }
+
     @Override
     public Void visitExitStmt(Stmt.Exit stmt)
     {
+        impure();
         return null;
     }
 
@@ -338,9 +543,20 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
     }
 
     private void resolveFunction(Stmt.Function function, FunctionType type)
+    {
+        resolveFunction(function, function.body, type);
+    }
+
+    private void resolveFunction(Stmt.Function function, List<Stmt> body, FunctionType type)
     {
         FunctionType enclosingFunction = currentFunction;
+        Stmt.Function enclosingDeclaration = currentDeclaration;
         currentFunction = type;
+        currentDeclaration = function;
+
+        Purity purity = new Purity(scopes.size());
+        functions.push(purity);
+        purities.put(function, purity);
 
         beginScope();
         for (Token param : function.params)
@@ -348,10 +564,177 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
             declare(param);
             define(param);
         }
-        resolve(function.body);
+        resolve(body);
         endScope();
 
+        functions.pop();
         currentFunction = enclosingFunction;
+        currentDeclaration = enclosingDeclaration;
+
+        outerAssignments.put(function, purity.outerAssignment);
+        if (parallelFunctions.remove(function))
+        {
+            checkParallel(function);
+        }
+    }
+
+    /**
+     * Marks the functions being resolved as having side effects
+     */
+    private void impure()
+    {
+        for (Purity purity : functions)
+        {
+            purity.pure = false;
+        }
+    }
+
+    /**
+     * Keeps track of names declared more than once at top level, calls through them can't be trusted to be pure
+     * @param name The declared name
+     */
+    private void declareGlobal(Token name)
+    {
+        if (scopes.isEmpty() && !declaredGlobals.add(name.lexeme()))
+        {
+            redeclaredGlobals.add(name.lexeme());
+        }
+    }
+
+    /**
+     * Finishes the purity analysis of the resolved functions, a function stays pure only if every global it
+     * reads is a pure top level function that is declared once and never assigned.
+     * Pure functions are reported to the interpreter so they can be memoized.
+     * Can be called after each top level statement, functions analyzed before are not revisited, except
+     * those that only wait on deferred bodies: they stay undecided until those bodies are resolved, and
+     * those marked pure when a global they read was assigned or redeclared since: their mark is revoked
+     */
+    void markPureFunctions()
+    {
+        revokePureFunctions();
+
+        boolean changed = true;
+
+        while (changed)
+        {
+            changed = false;
+
+            for (Purity purity : purities.values())
+            {
+                if (purity.pure && !readsPureGlobals(purity.globals))
+                {
+                    purity.pure = false;
+                    changed = true;
+                }
+            }
+        }
+
+        Set<Stmt.Function> undecided = undecided();
+
+        purities.forEach((function, purity) -> {
+            if (purity.pure && !undecided.contains(function))
+            {
+                pureFunctions.put(function, purity.globals);
+                interpreter.markPure(function);
+            }
+        });
+        purities.keySet().retainAll(undecided);
+    }
+
+    /**
+     * Revokes the marks of pure functions reading a global assigned or redeclared after they were marked,
+     * when the program is resolved one statement at a time. The statement doing it is resolved before it
+     * runs, so the interpreter drops the cached results before the global changes
+     */
+    private void revokePureFunctions()
+    {
+        int changes = redeclaredGlobals.size() + assignedGlobals.size();
+        if (changes == globalChanges)
+        {
+            return;
+        }
+        globalChanges = changes;
+
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+
+            Iterator<Map.Entry<Stmt.Function, Set<String>>> entries = pureFunctions.entrySet().iterator();
+            while (entries.hasNext())
+            {
+                Map.Entry<Stmt.Function, Set<String>> entry = entries.next();
+                if (!readsPureGlobals(entry.getValue()))
+                {
+                    entries.remove();
+                    interpreter.revokePure(entry.getKey());
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param globals The globals a function reads
+     * @return Indicator of whether they are all pure top level functions declared once and never assigned
+     */
+    private boolean readsPureGlobals(Set<String> globals)
+    {
+        for (String name : globals)
+        {
+            Stmt.Function callee = topLevelFunctions.get(name);
+
+            if (callee == null || redeclaredGlobals.contains(name) || assignedGlobals.contains(name)
+                    || !isPure(callee))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the functions still pure so far that call a deferred body, directly or through another one
+     */
+    private Set<Stmt.Function> undecided()
+    {
+        Set<Stmt.Function> undecided = new HashSet<>();
+        boolean changed = true;
+
+        while (changed)
+        {
+            changed = false;
+
+            for (Map.Entry<Stmt.Function, Purity> entry : purities.entrySet())
+            {
+                if (!entry.getValue().pure || undecided.contains(entry.getKey()))
+                {
+                    continue;
+                }
+
+                for (String name : entry.getValue().globals)
+                {
+                    Stmt.Function callee = topLevelFunctions.get(name);
+                    if (interpreter.deferredBody(callee) != null || undecided.contains(callee))
+                    {
+                        undecided.add(entry.getKey());
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return undecided;
+    }
+
+    private boolean isPure(Stmt.Function function)
+    {
+        Purity purity = purities.get(function);
+        if (purity == null)
+        {
+            return pureFunctions.containsKey(function) || interpreter.deferredBody(function) != null;
+        }
+        return purity.pure;
     }
 
     /**
@@ -370,7 +753,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
         Map<String, Flags> scope = scopes.pop();
         scope.forEach((k,v) -> { if (!v.used)
                 {
-                    Lox.error(new Token(TokenType.IDENTIFIER, k, null, 0), "Variable declared and never used");
+                    reporter.error(new Token(TokenType.IDENTIFIER, k, null, 0), "Variable declared and never used");
                 }
         });
     }
@@ -389,11 +772,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
 
         Map<String, Flags> scope = scopes.peek();
 
-        if (scope.containsKey(name.lexeme))
+        if (scope.containsKey(name.lexeme()))
         {
-            Lox.error(name, "Already a variable with this name in scope, turd.");
+            reporter.error(name, "Already a variable with this name in scope, turd.");
         }
-        scope.put(name.lexeme, new Flags());
+        scope.put(name.lexeme(), new Flags());
     }
 
     private void define(Token name)
@@ -405,7 +788,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
 
         Flags flags = new Flags();
         flags.assigned = true;
-        scopes.peek().put(name.lexeme, flags);
+        scopes.peek().put(name.lexeme(), flags);
     }
 
     /**
@@ -417,14 +800,50 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
     {
         for (int i = scopes.size() - 1; i >= 0; i--)
         {
-            if (scopes.get(i).containsKey(name.lexeme))
+            if (scopes.get(i).containsKey(name.lexeme()))
             {
-                Flags flags = scopes.get(i).get(name.lexeme);
+                Flags flags = scopes.get(i).get(name.lexeme());
                 flags.used = true;
-                scopes.get(i).put(name.lexeme, flags);
+                scopes.get(i).put(name.lexeme(), flags);
                 interpreter.resolve(expr, scopes.size() - 1- i);
+
+                for (Purity purity : functions)
+                {
+                    if (purity.scope > i)
+                    {
+                        purity.pure = false;
+                        if (expr instanceof Expr.Assign && purity.outerAssignment == null)
+                        {
+                            purity.outerAssignment = name;
+                        }
+                    }
+                }
+                if (expr instanceof Expr.Assign && !functions.isEmpty() && functions.peek().scope > i)
+                {
+                    interpreter.outerAssignment((Expr.Assign)expr);
+                }
                 return;
             }
         }
+
+        if (expr instanceof Expr.Assign)
+        {
+            assignedGlobals.add(name.lexeme());
+            impure();
+            for (Purity purity : functions)
+            {
+                if (purity.outerAssignment == null)
+                {
+                    purity.outerAssignment = name;
+                }
+            }
+        }
+        else
+        {
+            for (Purity purity : functions)
+            {
+                purity.globals.add(name.lexeme());
+            }
+        }
     }
 }
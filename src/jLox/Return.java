@@ -1,6 +1,6 @@
 package jLox;
 
-public class Return extends RuntimeException {
+class Return extends RuntimeException {
     final Object value;
 
     public Return(Object value)
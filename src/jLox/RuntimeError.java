@@ -1,6 +1,6 @@
 package jLox;
 
-public class RuntimeError extends RuntimeException
+class RuntimeError extends RuntimeException
 {
     final Token token;
 
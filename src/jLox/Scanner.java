@@ -3,58 +3,163 @@ package jLox;
 import static jLox.TokenType.*;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
-public class Scanner 
+class Scanner implements TokenSource
 {
-	private final String source;
-	private final List<Token> tokens = new ArrayList<>();
+	private final CharSequence source;
+	private final ErrorReporter reporter;
+	private Token token = null;
+	private int count = 0;
+	private final SymbolTable symbols = new SymbolTable();
+	private final Double[] constants = new Double[1 << CONSTANT_BITS];
 	private int start = 0,
 			current = 0,
 			line = 1;
-	private static final Map<String, TokenType> keywords;
+
+	// character classes, indexes of CLASSES are the ASCII characters
+	private static final byte OTHER = 0,
+			SPACE = 1,
+			NEWLINE = 2,
+			DIGIT = 3,
+			ALPHA = 4,
+			SINGLE = 5,
+			OPERATOR = 6,
+			DOT_CLASS = 7,
+			SLASH_CLASS = 8,
+			QUOTE = 9;
+	private static final byte[] CLASSES = new byte[128];
+
+	// operator automaton, a character leads to SINGLE_TOKENS and, for operators, to EQUAL_TOKENS on a following '='
+	private static final TokenType[] SINGLE_TOKENS = new TokenType[128];
+	private static final TokenType[] EQUAL_TOKENS = new TokenType[128];
+
+	// number literals with up to 18 digits fit a long, up to 2^53 they are exact doubles
+	private static final int MAX_LONG_DIGITS = 18;
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	private static final double[] POWERS_OF_TEN = new double[23];
+	private static final int CONSTANT_BITS = 10;
+
+	// keywords by a hash of the first and last character and the length, no two keywords share a slot
+	private static final TokenType[] KEYWORDS = new TokenType[64];
 
 	static
 	{
-		keywords = new HashMap<>();
-		keywords.put("and", AND);
-		keywords.put("class", CLASS);
-		keywords.put("else", ELSE);
-		keywords.put("false", FALSE);
-		keywords.put("for", FOR);
-		keywords.put("fun", FUN);
-		keywords.put("if", IF);
-		keywords.put("nil", NIL);
-		keywords.put("or", OR);
-		keywords.put("print", PRINT);
-		keywords.put("return", RETURN);
-		keywords.put("super", SUPER);
-		keywords.put("this", THIS);
-		keywords.put("true", TRUE);
-		keywords.put("var", VAR);
-		keywords.put("while", WHILE);
-		keywords.put("exit", EXIT);
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++)
+		{
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+
+		CLASSES[' '] = SPACE;
+		CLASSES['\r'] = SPACE;
+		CLASSES['\t'] = SPACE;
+		CLASSES['\n'] = NEWLINE;
+		CLASSES['.'] = DOT_CLASS;
+		CLASSES['/'] = SLASH_CLASS;
+		CLASSES['"'] = QUOTE;
+		CLASSES['_'] = ALPHA;
+
+		for (char c = '0'; c <= '9'; c++)
+		{
+			CLASSES[c] = DIGIT;
+		}
+		for (char c = 'a'; c <= 'z'; c++)
+		{
+			CLASSES[c] = ALPHA;
+			CLASSES[c - 'a' + 'A'] = ALPHA;
+		}
+
+		for (TokenType type : new TokenType[] { LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, COMMA,
+				MINUS, PLUS, SEMICOLON, STAR, COLON, QUESTION })
+		{
+			CLASSES[type.text.charAt(0)] = SINGLE;
+			SINGLE_TOKENS[type.text.charAt(0)] = type;
+		}
+
+		TokenType[][] operators = { { BANG, BANG_EQUAL }, { EQUAL, EQUAL_EQUAL }, { LESS, LESS_EQUAL },
+				{ GREATER, GREATER_EQUAL } };
+		for (TokenType[] operator : operators)
+		{
+			char c = operator[0].text.charAt(0);
+			CLASSES[c] = OPERATOR;
+			SINGLE_TOKENS[c] = operator[0];
+			EQUAL_TOKENS[c] = operator[1];
+		}
+
+		for (TokenType type : new TokenType[] { AND, CLASS, ELSE, FALSE, FOR, FUN, IF, NIL, OR, PRINT,
+				RETURN, SUPER, THIS, TRUE, VAR, WHILE, EXIT, YIELD })
+		{
+			String text = type.text;
+			int slot = keywordHash(text.charAt(0), text.charAt(text.length() - 1), text.length());
+			if (KEYWORDS[slot] != null)
+			{
+				throw new AssertionError("Keywords " + KEYWORDS[slot] + " and " + type + " collide");
+			}
+			KEYWORDS[slot] = type;
+		}
+	}
+
+	Scanner(CharSequence source)
+	{
+		this(source, new ErrorReporter(System.err));
 	}
 
-	Scanner(String source)
+	/**
+	 * @param source The source text
+	 * @param reporter Receives the errors found in the source
+	 */
+	Scanner(CharSequence source, ErrorReporter reporter)
 	{
 		this.source = source;
+		this.reporter = reporter;
 	}
 
+	List<Token> scanTokens()
+	{
+		List<Token> tokens = new ArrayList<>();
+		Token token;
+
+		do
+		{
+			token = nextToken();
+			tokens.add(token);
+		}
+		while (token.type != EOF);
 
+		return tokens;
+	}
 
-	List<Token> scanTokens()
+	/**
+	 * Scans the source up to the next token, skipping whitespace and comments
+	 * @return the next token, EOF once the source is exhausted
+	 */
+	@Override
+	public Token nextToken()
 	{
-		while (!isAtEnd())
+		while (token == null)
 		{
+			if (isAtEnd())
+			{
+				return new Token(EOF, source, current, 0, EOF.text, null, line);
+			}
+
 			start = current;
 			scanToken();
 		}
-		
-		tokens.add(new Token(EOF, "", null, line));
-		return tokens;
+
+		Token next = token;
+		token = null;
+		count++;
+		return next;
+	}
+
+	/**
+	 * @return the number of tokens scanned so far, not counting EOF
+	 */
+	int tokenCount()
+	{
+		return count;
 	}
 	
 	private boolean isAtEnd()
@@ -66,60 +171,21 @@ public class Scanner
 	{
 		char c = advance();
 		
-		switch (c)
+		switch (classOf(c))
 		{
-			case '(':
-				addToken(LEFT_PAREN);
-				break;
-			case ')':
-				addToken(RIGHT_PAREN);
+			case SINGLE:
+				addToken(SINGLE_TOKENS[c]);
 				break;
-			case '{':
-				addToken(LEFT_BRACE);
+			case OPERATOR:
+				addToken(match('=') ? EQUAL_TOKENS[c] : SINGLE_TOKENS[c]);
 				break;
-			case '}':
-				addToken(RIGHT_BRACE);
-				break;
-			case ',':
-				addToken(COMMA);
-				break;
-			case '.':
+			case DOT_CLASS:
 				if (isDigit(peek()))
 					number();
 				else
 					addToken(DOT);
 				break;
-			case '-':
-				addToken(MINUS);
-				break;
-			case '+':
-				addToken(PLUS);
-				break;
-			case ';':
-				addToken(SEMICOLON);
-				break;
-			case '*':
-				addToken(STAR);
-				break;
-			case ':':
-				addToken(COLON);
-				break;
-			case '?':
-				addToken(QUESTION);
-				break;
-			case '!':
-				addToken(match('=') ? BANG_EQUAL : BANG);
-				break;
-			case '=':
-				addToken(match('=') ? EQUAL_EQUAL : EQUAL);
-				break;
-			case '<':
-				addToken(match('=') ? LESS_EQUAL : LESS);
-				break;
-			case '>':
-				addToken(match('=') ? GREATER_EQUAL : GREATER);
-				break;
-			case '/':
+			case SLASH_CLASS:
 				if (match('/'))
 				{
 					while(peek() != '\n' && !isAtEnd()) advance();
@@ -133,31 +199,29 @@ public class Scanner
 					addToken(SLASH);
 				}
 				break;
-			case ' ':
-			case '\r':
-			case '\t':
+			case SPACE:
 				break;
-			case '\n':
+			case NEWLINE:
 				line++;
 				break;
-			case '"':
+			case QUOTE:
 				string();
 				break;
+			case DIGIT:
+				number();
+				break;
+			case ALPHA:
+				identifier();
+				break;
 			default:
-				if (isDigit(c))
-				{
-					number();
-				}
-				else if (isAlpha(c))
-				{
-					identifier();
-				}
-				else
-				{
-					Lox.error(line, "Unexpected Character n'shit");
-				}
+				reporter.error(line, "Unexpected Character n'shit");
 		}
 	}
+
+	private static byte classOf(char c)
+	{
+		return c < 128 ? CLASSES[c] : OTHER;
+	}
 	
 	private char advance()
 	{
@@ -169,10 +233,14 @@ public class Scanner
 		addToken(type, null);
 	}
 	
+	/**
+	 * Adds a token referencing its text in the source, only keywords and punctuation have their text up front
+	 * @param type The token type
+	 * @param literal The literal value
+	 */
 	private void addToken(TokenType type, Object literal)
 	{
-		String text = source.substring(start, current);
-		tokens.add(new Token(type, text, literal, line));
+		token = new Token(type, source, start, current - start, type.text, literal, line);
 	}
 
 	private boolean match(char expected)
@@ -202,52 +270,100 @@ public class Scanner
 
 		if (isAtEnd())
 		{
-			Lox.error(line, "Unterminated string n'shit");
+			reporter.error(line, "Unterminated string n'shit");
 			return;
 		}
 
 		advance();
 
-		String value = source.substring(start + 1, current -1);
+		String value = source.subSequence(start + 1, current -1).toString();
 		addToken(STRING, value);
 	}
 
 	private boolean isDigit(char c)
 	{
-		return c >= '0' && c <= '9';
-	}
-
-	private boolean isAlpha(char c)
-	{
-		return (c >= 'a' && c <= 'z') ||
-				( c >= 'A' && c <= 'Z') ||
-				( c == '_');
+		return classOf(c) == DIGIT;
 	}
 
 	private boolean isAlphaNumeric(char c)
 	{
-		return isAlpha(c) || isDigit(c);
+		byte kind = classOf(c);
+		return kind == ALPHA || kind == DIGIT;
 	}
 
+	/**
+	 * Scans a number literal, accumulating its digits as it goes. The value is exact when the
+	 * digits fit a double's mantissa and the scale is an exact power of ten, so one division rounds
+	 * it correctly, longer literals are parsed from their text
+	 */
 	private void number()
 	{
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+
 		if (source.charAt(start) != '.')
 		{
-			while (isDigit(peek())) {
-				advance();
-			}
-		}
-		if ((peek() == '.' || source.charAt(start) == '.') && isDigit(peekNext()))
-		{
-			advance();
+			mantissa = source.charAt(start) - '0';
+			digits = 1;
 
 			while (isDigit(peek()))
 			{
-				advance();
+				mantissa = mantissa * 10 + (advance() - '0');
+				digits++;
 			}
+
+			if (peek() != '.' || !isDigit(peekNext()))
+			{
+				addToken(NUMBER, constant(mantissa, digits, 0));
+				return;
+			}
+			advance();
+		}
+
+		while (isDigit(peek()))
+		{
+			mantissa = mantissa * 10 + (advance() - '0');
+			digits++;
+			scale++;
+		}
+
+		addToken(NUMBER, constant(mantissa, digits, scale));
+	}
+
+	private Double constant(long mantissa, int digits, int scale)
+	{
+		double value;
+
+		if (digits <= MAX_LONG_DIGITS && mantissa <= MAX_EXACT_MANTISSA && scale < POWERS_OF_TEN.length)
+		{
+			value = scale == 0 ? mantissa : mantissa / POWERS_OF_TEN[scale];
+		}
+		else
+		{
+			value = Double.parseDouble(source.subSequence(start, current).toString());
 		}
 
-		addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+		return box(value);
+	}
+
+	/**
+	 * Shares the boxed value of repeated constants, a slot keeps the last value hashed to it
+	 * @param value The number
+	 * @return the boxed number
+	 */
+	private Double box(double value)
+	{
+		long bits = Double.doubleToRawLongBits(value);
+		int slot = (int)(bits ^ (bits >>> 32)) * 0x9E3779B9 >>> (32 - CONSTANT_BITS);
+		Double boxed = constants[slot];
+
+		if (boxed == null || Double.doubleToRawLongBits(boxed) != bits)
+		{
+			boxed = value;
+			constants[slot] = boxed;
+		}
+		return boxed;
 	}
 
 	private void identifier()
@@ -257,16 +373,53 @@ public class Scanner
 			advance();
 		}
 
-		String text = source.substring(start, current);
-		TokenType type = keywords.get(text);
+		TokenType type = keyword(start, current);
 
 		if (type == null)
 		{
-			type = IDENTIFIER;
+			String text = symbols.intern(source, start, current);
+			token = new Token(IDENTIFIER, source, start, current - start, text, null, line);
+			return;
 		}
 		addToken(type);
 	}
 
+	/**
+	 * Recognizes a keyword in place, the hash picks the only keyword it could be and the
+	 * characters are then compared against it
+	 * @param start Offset of the first character of the name
+	 * @param end Offset after the last character of the name
+	 * @return the keyword type, null for any other name
+	 */
+	private TokenType keyword(int start, int end)
+	{
+		int length = end - start;
+		if (length < 2 || length > 6)
+		{
+			return null;
+		}
+
+		TokenType type = KEYWORDS[keywordHash(source.charAt(start), source.charAt(end - 1), length)];
+		if (type == null || type.text.length() != length)
+		{
+			return null;
+		}
+
+		for (int i = 0; i < length; i++)
+		{
+			if (type.text.charAt(i) != source.charAt(start + i))
+			{
+				return null;
+			}
+		}
+		return type;
+	}
+
+	private static int keywordHash(char first, char last, int length)
+	{
+		return (first + 18 * last + length) & 63;
+	}
+
 	private char peekNext()
 	{
 		if (current + 1 >= source.length())
@@ -282,7 +435,7 @@ public class Scanner
 		{
 			if(isAtEnd())
 			{
-				Lox.error(line, "Unterminated block comment n'shit");
+				reporter.error(line, "Unterminated block comment n'shit");
 				return;
 			}
 			else if (peek() == '\n')
@@ -16,6 +16,8 @@ abstract class Stmt
 		R visitWhileStmt(While stmt);
 		R visitVarStmt(Var stmt);
 		R visitExitStmt(Exit stmt);
+		R visitYieldStmt(Yield stmt);
+		R visitCloseStmt(Close stmt);
 	}
 
 	static class Block extends Stmt
@@ -196,5 +198,41 @@ abstract class Stmt
 		}
 	}
 
+	static class Yield extends Stmt
+	{
+		final Token keyword;
+		final Expr value;
+
+		@Override
+		<R> R accept(Visitor<R> visitor)
+		{
+			return visitor.visitYieldStmt(this);
+		}
+
+		Yield(Token keyword, Expr value)
+		{
+			this.keyword=keyword;
+			this.value=value;
+		}
+	}
+
+	static class Close extends Stmt
+	{
+		final Expr iterator;
+		final Stmt body;
+
+		@Override
+		<R> R accept(Visitor<R> visitor)
+		{
+			return visitor.visitCloseStmt(this);
+		}
+
+		Close(Expr iterator, Stmt body)
+		{
+			this.iterator=iterator;
+			this.body=body;
+		}
+	}
+
 	abstract <R> R accept(Visitor<R> visitor);
 }
\ No newline at end of file
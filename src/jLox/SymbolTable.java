@@ -0,0 +1,90 @@
+package jLox;
+
+/**
+ * Interns the names found by the scanner. Names are looked up directly from their range in the
+ * source, so a name is only copied out of the source the first time it is seen
+ */
+class SymbolTable
+{
+    private String[] symbols = new String[64];
+    private int[] hashes = new int[64];
+    private int size = 0;
+
+    /**
+     * Finds the shared string for a range of the source
+     * @param source The source text
+     * @param start Offset of the first character
+     * @param end Offset after the last character
+     * @return the interned string
+     */
+    String intern(CharSequence source, int start, int end)
+    {
+        int hash = 0;
+        for (int i = start; i < end; i++)
+        {
+            hash = 31 * hash + source.charAt(i);
+        }
+
+        int mask = symbols.length - 1;
+        int index = hash & mask;
+
+        while (symbols[index] != null)
+        {
+            if (hashes[index] == hash && matches(symbols[index], source, start, end))
+            {
+                return symbols[index];
+            }
+            index = (index + 1) & mask;
+        }
+
+        String symbol = source.subSequence(start, end).toString();
+        symbols[index] = symbol;
+        hashes[index] = hash;
+
+        if (++size * 2 > symbols.length)
+        {
+            grow();
+        }
+        return symbol;
+    }
+
+    private static boolean matches(String symbol, CharSequence source, int start, int end)
+    {
+        if (symbol.length() != end - start)
+        {
+            return false;
+        }
+
+        for (int i = 0; i < symbol.length(); i++)
+        {
+            if (symbol.charAt(i) != source.charAt(start + i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grow()
+    {
+        String[] oldSymbols = symbols;
+        int[] oldHashes = hashes;
+        symbols = new String[oldSymbols.length * 2];
+        hashes = new int[oldHashes.length * 2];
+        int mask = symbols.length - 1;
+
+        for (int i = 0; i < oldSymbols.length; i++)
+        {
+            if (oldSymbols[i] != null)
+            {
+                int index = oldHashes[i] & mask;
+                while (symbols[index] != null)
+                {
+                    index = (index + 1) & mask;
+                }
+                symbols[index] = oldSymbols[i];
+                hashes[index] = oldHashes[i];
+            }
+        }
+    }
+}
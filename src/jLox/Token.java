@@ -1,23 +1,54 @@
 package jLox;
 
-public class Token 
+class Token 
 {
 	final TokenType type;
-	final String lexeme;
 	final Object literal;
 	final int line;
+	private final CharSequence source;
+	private final int start;
+	private final int length;
+	private String lexeme;
 	
 	Token(TokenType type, String lexeme, Object literal, int line)
+	{
+		this(type, null, 0, 0, lexeme, literal, line);
+	}
+
+	/**
+	 * Creates a token referencing its text in the source instead of copying it
+	 * @param type The token type
+	 * @param source The scanned source
+	 * @param start Offset of the token in the source
+	 * @param length Length of the token text
+	 * @param lexeme The shared text of the token if already known (keywords, punctuation, interned names),
+	 *               otherwise null and copied from the source when first asked for
+	 * @param literal The literal value
+	 * @param line The line of the token
+	 */
+	Token(TokenType type, CharSequence source, int start, int length, String lexeme, Object literal, int line)
 	{
 		this.type = type;
+		this.source = source;
+		this.start = start;
+		this.length = length;
 		this.lexeme = lexeme;
 		this.literal = literal;
 		this.line = line;
 	}
+
+	String lexeme()
+	{
+		if (lexeme == null)
+		{
+			lexeme = source.subSequence(start, start + length).toString();
+		}
+		return lexeme;
+	}
 	
 	public String toString()
 	{
-		return type + " " + lexeme + " " + literal;
+		return type + " " + lexeme() + " " + literal;
 	}
 
 }
@@ -0,0 +1,164 @@
+package jLox;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single producer, single consumer ring buffer of tokens.
+ * The scanner runs on its own thread and puts tokens in the ring while the parser takes them on
+ * the calling thread. The producer only writes the tail and the consumer only writes the head,
+ * both are volatile so a slot written before the tail moves is visible once the consumer sees it.
+ * A side that finds the ring full or empty spins a little, then parks until the other side moves
+ * its position and unparks it
+ */
+class TokenRing implements TokenSource
+{
+    static final int DEFAULT_CAPACITY = 4096;
+    private static final int SPINS = 128;
+
+    private final Token[] slots;
+    private final int mask;
+    private volatile long head = 0;
+    private volatile long tail = 0;
+    private volatile Throwable failure = null;
+
+    // the side parked waiting for the other one, null while it runs
+    private volatile Thread parkedProducer = null;
+    private volatile Thread parkedConsumer = null;
+
+    // cached copies of the other side's position, to avoid reading the volatile on every token
+    private long cachedHead = 0;
+    private long cachedTail = 0;
+    private Token eof = null;
+
+    private TokenRing(int capacity)
+    {
+        slots = new Token[Integer.highestOneBit(capacity - 1) << 1];
+        mask = slots.length - 1;
+    }
+
+    /**
+     * Starts scanning on a background thread
+     * @param scanner The scanner, only used by the background thread from now on
+     * @param capacity The number of tokens the ring holds
+     * @return the ring the parser takes the tokens from
+     */
+    static TokenRing scan(Scanner scanner, int capacity)
+    {
+        TokenRing ring = new TokenRing(capacity);
+
+        Thread thread = new Thread(() -> {
+            Token token;
+            try
+            {
+                do
+                {
+                    token = scanner.nextToken();
+                    ring.put(token);
+                }
+                while (token.type != TokenType.EOF);
+            }
+            catch (Throwable error)
+            {
+                ring.failure = error;
+                ring.put(new Token(TokenType.EOF, "", null, 0));
+            }
+        }, "jlox-scanner");
+
+        thread.setDaemon(true);
+        thread.start();
+        return ring;
+    }
+
+    private void put(Token token)
+    {
+        long position = tail;
+        int spins = 0;
+
+        while (position - cachedHead >= slots.length)
+        {
+            cachedHead = head;
+            if (position - cachedHead < slots.length)
+            {
+                break;
+            }
+            if (spins++ < SPINS)
+            {
+                Thread.onSpinWait();
+            }
+            else
+            {
+                // published before reading head again, the consumer either sees it or made room already
+                parkedProducer = Thread.currentThread();
+                if (position - head >= slots.length)
+                {
+                    LockSupport.park(this);
+                }
+                parkedProducer = null;
+            }
+        }
+
+        slots[(int)position & mask] = token;
+        tail = position + 1;
+
+        Thread consumer = parkedConsumer;
+        if (consumer != null)
+        {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    @Override
+    public Token nextToken()
+    {
+        if (eof != null)
+        {
+            return eof;
+        }
+
+        long position = head;
+        int spins = 0;
+
+        while (position >= cachedTail)
+        {
+            cachedTail = tail;
+            if (position < cachedTail)
+            {
+                break;
+            }
+            if (spins++ < SPINS)
+            {
+                Thread.onSpinWait();
+            }
+            else
+            {
+                parkedConsumer = Thread.currentThread();
+                if (position >= tail)
+                {
+                    LockSupport.park(this);
+                }
+                parkedConsumer = null;
+            }
+        }
+
+        int index = (int)position & mask;
+        Token token = slots[index];
+        slots[index] = null;
+        head = position + 1;
+
+        Thread producer = parkedProducer;
+        if (producer != null)
+        {
+            LockSupport.unpark(producer);
+        }
+
+        if (token.type == TokenType.EOF)
+        {
+            if (failure != null)
+            {
+                throw new IllegalStateException("Scanner failed", failure);
+            }
+            eof = token;
+        }
+        return token;
+    }
+}
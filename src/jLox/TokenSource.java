@@ -0,0 +1,12 @@
+package jLox;
+
+/**
+ * Supplies tokens to the parser one at a time
+ */
+interface TokenSource
+{
+    /**
+     * @return the next token, EOF at the end and for every call after it
+     */
+    Token nextToken();
+}
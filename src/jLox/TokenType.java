@@ -1,56 +1,66 @@
 package jLox;
 
-public enum TokenType 
+enum TokenType 
 {
 	// single char
-	LEFT_PAREN,
-	RIGHT_PAREN,
-	LEFT_BRACE,
-	RIGHT_BRACE,
-	COMMA,
-	DOT,
-	MINUS,
-	PLUS,
-	SEMICOLON,
-	SLASH,
-	STAR,
-	QUESTION,
-	COLON,
+	LEFT_PAREN("("),
+	RIGHT_PAREN(")"),
+	LEFT_BRACE("{"),
+	RIGHT_BRACE("}"),
+	COMMA(","),
+	DOT("."),
+	MINUS("-"),
+	PLUS("+"),
+	SEMICOLON(";"),
+	SLASH("/"),
+	STAR("*"),
+	QUESTION("?"),
+	COLON(":"),
 	
 	// single OR part of double char
-	BANG, // !
-	BANG_EQUAL,
-	EQUAL,
-	EQUAL_EQUAL,
-	GREATER,
-	GREATER_EQUAL,
-	LESS,
-	LESS_EQUAL,
+	BANG("!"), // !
+	BANG_EQUAL("!="),
+	EQUAL("="),
+	EQUAL_EQUAL("=="),
+	GREATER(">"),
+	GREATER_EQUAL(">="),
+	LESS("<"),
+	LESS_EQUAL("<="),
 	
 	// literals
-	IDENTIFIER,
-	STRING,
-	NUMBER,
+	IDENTIFIER(null),
+	STRING(null),
+	NUMBER(null),
 	
 	// keywords
 	
-	AND,
-	CLASS,
-	ELSE,
-	FALSE,
-	FUN,
-	FOR,
-	IF,
-	NIL,
-	OR,
-	PRINT,
-	RETURN,
-	SUPER,
-	THIS,
-	TRUE,
-	VAR,
-	WHILE,
-	EOF,
-	EXIT
-	
+	AND("and"),
+	CLASS("class"),
+	ELSE("else"),
+	FALSE("false"),
+	FUN("fun"),
+	FOR("for"),
+	IF("if"),
+	NIL("nil"),
+	OR("or"),
+	PRINT("print"),
+	RETURN("return"),
+	SUPER("super"),
+	THIS("this"),
+	TRUE("true"),
+	VAR("var"),
+	WHILE("while"),
+	EOF(""),
+	EXIT("exit"),
+	YIELD("yield");
+
+	/**
+	 * The lexeme of every token of this type, null when it depends on the source
+	 */
+	final String text;
+
+	TokenType(String text)
+	{
+		this.text = text;
+	}
 }
@@ -1,2 +1,7 @@
 module jLox {
+    requires transitive java.scripting;
+
+    exports jLox;
+
+    provides javax.script.ScriptEngineFactory with jLox.LoxScriptEngineFactory;
 }
\ No newline at end of file
@@ -21,6 +21,7 @@ expressions.append("This : Token keyword")
 expressions.append("Unary : Token operator, Expr right")
 expressions.append("Ternary : Expr condition, Expr ifTrue, Expr ifFalse")
 expressions.append("Variable: Token name")
+expressions.append("Hoisted : Token name, Expr expression")
 
 statements = []
 statements.append("Block : List<Stmt> statements")
@@ -33,6 +34,8 @@ statements.append("Return : Token keyword, Expr value")
 statements.append("While : Expr condition, Stmt body")
 statements.append("Var : Token name, Expr initializer")
 statements.append("Exit : Object value")
+statements.append("Yield : Token keyword, Expr value")
+statements.append("Close : Expr iterator, Stmt body")
 
 def defineType(file, baseName, className, fieldList):
     file.write("\tstatic class " + className + " extends " + baseName + "\n\t{\n")